@@ -20,6 +20,12 @@
  */
 package com.sun.pdfview;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * An abstract implementation of the watchable interface, that is extended
  * by the parser and renderer to do their thing.
@@ -36,8 +42,12 @@ public abstract class BaseWatchable implements Watchable, Runnable {
     private Gate gate;
     /** suppress local stack trace on setError. */
     private static boolean SuppressSetErrorStackTrace = false;
-    /** the thread we are running in */
-    private Thread thread;
+    /** whether we are running in some thread */
+    private volatile boolean running;
+    /** run to completion without updates for watchers */
+    private boolean batch;
+    /** the executor of all asynchronous watchables */
+    private static Executor executor;
 
     /** 
      * Creates a new instance of BaseWatchable
@@ -93,12 +103,24 @@ public abstract class BaseWatchable implements Watchable, Runnable {
                     setStatus(Watchable.RUNNING);
 
                     try {
-                        // keep going until the status is no longer running,
-                        // our gate tells us to stop, or no-one is watching
-                        while ((getStatus() == Watchable.RUNNING) &&
-                                (gate == null || !gate.iterate())) {
-                            // update the status based on this iteration
-                            setStatus(iterate());
+                        if (batch) {
+                            // nobody is watching, only publish the final status
+                            int iterStatus = Watchable.RUNNING;
+                            while (iterStatus == Watchable.RUNNING &&
+                                    getStatus() == Watchable.RUNNING) {
+                                iterStatus = iterate();
+                            }
+                            if (getStatus() == Watchable.RUNNING) {
+                                setStatus(iterStatus);
+                            }
+                        } else {
+                            // keep going until the status is no longer running,
+                            // our gate tells us to stop, or no-one is watching
+                            while ((getStatus() == Watchable.RUNNING) &&
+                                    (gate == null || !gate.iterate())) {
+                                // update the status based on this iteration
+                                setStatus(iterate());
+                            }
                         }
 
                         // make sure we are paused
@@ -134,7 +156,7 @@ public abstract class BaseWatchable implements Watchable, Runnable {
         }
 
         // notify that we are no longer running
-        thread = null;
+        running = false;
     }
 
     /**
@@ -197,6 +219,25 @@ public abstract class BaseWatchable implements Watchable, Runnable {
         execute(synchronous);
     }
 
+    /**
+     * Run this watchable in this thread until it is finished, for batch
+     * processing. Nobody watches the progress, so there are no intermediate
+     * status changes and subclasses skip their progressive updates.
+     */
+    public synchronized void goBatch() {
+        gate = null;
+        batch = true;
+
+        execute(true);
+    }
+
+    /**
+     * is this watchable running in batch mode
+     */
+    protected boolean isBatch() {
+        return batch;
+    }
+
     /**
      * Start this watchable and run for the given number of steps or until
      * finished or stopped.
@@ -245,7 +286,7 @@ public abstract class BaseWatchable implements Watchable, Runnable {
      */
     protected synchronized void execute(boolean synchronous) {
         // see if we're already running
-        if (thread != null) {
+        if (running) {
             // we're already running. Make sure we wake up on any change.
             synchronized (statusLock) {
                 statusLock.notifyAll();
@@ -258,14 +299,52 @@ public abstract class BaseWatchable implements Watchable, Runnable {
         }
 
         // we'return not running. Start up
+        running = true;
         if (synchronous) {
-            thread = Thread.currentThread();
             run();
         } else {
-            thread = new Thread(this);
-            thread.setName(getClass().getName());
-            thread.start();
+            getExecutor().execute(this);
+        }
+    }
+
+    /**
+     * Set the executor which runs the asynchronous watchables. Renderers
+     * wait for their parser, an executor with a bounded number of threads
+     * must have more threads than renderers run at the same time.
+     *
+     * @param executor the executor, or null for the default one
+     */
+    public static synchronized void setExecutor(Executor executor) {
+        BaseWatchable.executor = executor;
+    }
+
+    /**
+     * Get the executor which runs the asynchronous watchables. The default
+     * executor reuses idle daemon threads and creates new ones if needed.
+     */
+    public static synchronized Executor getExecutor() {
+        if (executor == null) {
+            executor = createDefaultExecutor();
         }
+
+        return executor;
+    }
+
+    /**
+     * create a cached thread pool with daemon threads
+     */
+    private static ExecutorService createDefaultExecutor() {
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r);
+                thread.setName(BaseWatchable.class.getName() + "-" +
+                        count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
     }
 
     /**
@@ -23,6 +23,9 @@ package com.sun.pdfview;
 import java.awt.geom.Rectangle2D;
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 
 import com.sun.pdfview.action.*;
@@ -49,6 +52,8 @@ public class PDFFile {
     /** the end of line character */
     /** the comment text to begin the file to determine it's version */
     private final static String VERSION_COMMENT = "%PDF-";
+    /** the charset of names and strings in digests */
+    private final static Charset UTF8 = Charset.forName("UTF-8");
     /**
      * A ByteBuffer containing the file data
      */
@@ -68,6 +73,10 @@ public class PDFFile {
 
     /** a mapping of page numbers to parsed PDF commands */
     Cache cache;
+    /** the offsets of the xref tables and streams read from the file */
+    private final Set<Integer> xrefOffsets = new HashSet<Integer>();
+    /** digests of the indirect objects used by pages, by object number */
+    private final Map<Integer,byte[]> objectDigests = new HashMap<Integer,byte[]>();
     /**
      * whether the file is printable or not (trailer -> Encrypt -> P & 0x4)
      */
@@ -158,6 +167,16 @@ public class PDFFile {
         return root;
     }
 
+    /**
+     * get the content of the file this PDFFile was read from.  The buffer is
+     * shared with this PDFFile, other readers must not change it and have to
+     * use their own duplicate (or absolute positions) to read it.
+     * @return the content of the file, starting at position 0
+     */
+    public ByteBuffer getFileBuffer() {
+        return fileBuf;
+    }
+
     /**
      * return the number of pages in this PDFFile.  The pages will be
      * numbered from 1 to getNumPages(), inclusive.
@@ -1077,6 +1096,7 @@ public class PDFFile {
         boolean furtherCrossrefsToRead = true;
         while (furtherCrossrefsToRead) {
 
+            xrefOffsets.add(fileBuf.position());
             PDFObject header =
                     readObject(fileBuf, -1, -1, IdentityDecrypter.getInstance());
 
@@ -1676,6 +1696,312 @@ public class PDFFile {
         return page;
     }
 
+    /**
+     * Parse the page commands for a given page in this thread. Neither
+     * the page nor its parser are stored in the cache, the page is
+     * meant to be rendered once (e.g. in a batch) and dropped afterwards.
+     *
+     * @param pagenum the number of the page to get commands for
+     * @return the finished page or null if there is no such page
+     * @throws IOException if the page can not be parsed
+     */
+    public PDFPage loadPage(int pagenum) throws IOException {
+        return loadPage(pagenum, false);
+    }
+
+    /**
+     * Parse a page without the page cache, optionally together with the
+     * digest of its contents and resources.
+     *
+     * @param pagenum the number of the page, starting with 1
+     * @param digest calculate the content digest of the page
+     * @return the parsed page, or null if there is no such page
+     * @throws IOException if the page can not be parsed
+     * @see PDFPage#getContentDigest()
+     */
+    public PDFPage loadPage(int pagenum, boolean digest) throws IOException {
+        HashMap<String,PDFObject> resources = new HashMap<String,PDFObject>();
+
+        PDFObject topPagesObj = root.getDictRef("Pages");
+        PDFObject pageObj = findPage(topPagesObj, 0, pagenum, resources);
+
+        if (pageObj == null) {
+            return null;
+        }
+
+        PDFPage page = createPage(pagenum, pageObj, null);
+        if (digest) {
+            page.setContentDigest(digestPage(pageObj, resources));
+        }
+
+        byte[] stream = getContents(pageObj);
+        PDFParser parser = new PDFParser(page, stream, resources);
+        parser.goBatch();
+
+        return page;
+    }
+
+    /**
+     * Digest of the content streams and the (inherited) resources of a
+     * page.  The streams are digested as stored in the file, the digests
+     * of indirect objects are calculated once per file.
+     *
+     * @param pageObj the page dictionary
+     * @param resources the resources of the page
+     * @return the SHA-1 digest
+     */
+    private byte[] digestPage(PDFObject pageObj,
+            Map<String,PDFObject> resources) throws IOException {
+        MessageDigest md = newDigest();
+        md.update(digestObject(pageObj.getDictRef("Contents"),
+                new HashSet<Integer>(), new HashSet<Integer>()));
+
+        List<String> keys = new ArrayList<String>(resources.keySet());
+        Collections.sort(keys);
+        for (String key : keys) {
+            digestString(md, key);
+            md.update(digestObject(resources.get(key), new HashSet<Integer>(),
+                    new HashSet<Integer>()));
+        }
+
+        return md.digest();
+    }
+
+    /**
+     * Digest of an object and all objects it refers to.  A reference back
+     * to an object in progress is digested by its object number only, such
+     * a digest does not cover the content of that object and is not
+     * remembered for other paths.
+     *
+     * @param obj the object, may be null
+     * @param path the indirect objects currently being digested
+     * @param cycles gets the objects in progress which were digested by
+     * their object number only
+     * @return the SHA-1 digest
+     */
+    private byte[] digestObject(PDFObject obj, Set<Integer> path,
+            Set<Integer> cycles) throws IOException {
+        if (obj == null || !obj.isIndirect()) {
+            return digestValue(obj, path, cycles);
+        }
+
+        Integer objNum = obj.getReferencedObjNum();
+        synchronized (objectDigests) {
+            byte[] digest = objectDigests.get(objNum);
+            if (digest != null) {
+                return digest;
+            }
+        }
+
+        // a reference back to an object in progress
+        if (!path.add(objNum)) {
+            cycles.add(objNum);
+            MessageDigest md = newDigest();
+            digestString(md, "R" + objNum);
+            return md.digest();
+        }
+
+        byte[] digest;
+        Set<Integer> innerCycles = new HashSet<Integer>();
+        try {
+            digest = digestValue(obj.dereference(), path, innerCycles);
+        } finally {
+            path.remove(objNum);
+        }
+
+        // complete unless it depends on an object still in progress
+        innerCycles.remove(objNum);
+        if (!innerCycles.isEmpty()) {
+            cycles.addAll(innerCycles);
+            return digest;
+        }
+
+        synchronized (objectDigests) {
+            objectDigests.put(objNum, digest);
+        }
+        return digest;
+    }
+
+    /**
+     * Digest of the value of a direct object.
+     */
+    private byte[] digestValue(PDFObject obj, Set<Integer> path,
+            Set<Integer> cycles) throws IOException {
+        MessageDigest md = newDigest();
+        int type = (obj == null) ? PDFObject.NULL : obj.getType();
+        md.update((byte) type);
+
+        switch (type) {
+            case PDFObject.BOOLEAN:
+                md.update((byte) (obj.getBooleanValue() ? 1 : 0));
+                break;
+            case PDFObject.NUMBER:
+                long bits = Double.doubleToLongBits(obj.getDoubleValue());
+                for (int i = 0; i < 8; i++) {
+                    md.update((byte) (bits >>> (8 * i)));
+                }
+                break;
+            case PDFObject.STRING:
+            case PDFObject.NAME:
+            case PDFObject.KEYWORD:
+                digestString(md, obj.getStringValue());
+                break;
+            case PDFObject.ARRAY:
+                PDFObject[] array = obj.getArray();
+                for (int i = 0; i < array.length; i++) {
+                    md.update(digestObject(array[i], path, cycles));
+                }
+                break;
+            case PDFObject.DICTIONARY:
+            case PDFObject.STREAM:
+                Map<String,PDFObject> dict = obj.getDictionary();
+                List<String> keys = new ArrayList<String>(dict.keySet());
+                Collections.sort(keys);
+                for (String key : keys) {
+                    // the page tree doesn't change the look
+                    if (key.equals("Parent")) {
+                        continue;
+                    }
+                    digestString(md, key);
+                    md.update(digestObject(dict.get(key), path, cycles));
+                }
+                if (type == PDFObject.STREAM) {
+                    ByteBuffer streamBuf = obj.getRawStreamBuffer();
+                    if (streamBuf != null) {
+                        md.update(streamBuf);
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+
+        return md.digest();
+    }
+
+    /**
+     * add a string and its length to the digest
+     */
+    private static void digestString(MessageDigest md, String value) {
+        byte[] bytes = (value == null) ? new byte[0] : value.getBytes(UTF8);
+        md.update((byte) (bytes.length >>> 24));
+        md.update((byte) (bytes.length >>> 16));
+        md.update((byte) (bytes.length >>> 8));
+        md.update((byte) bytes.length);
+        md.update(bytes);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Get the PDFObject of the page dictionary of a particular page.
+     *
+     * @param pagenum the number of the page, starting with 1
+     * @return the page dictionary, or null if there is no such page
+     */
+    public PDFObject getPageObject(int pagenum) throws IOException {
+        PDFObject topPagesObj = root.getDictRef("Pages");
+        return findPage(topPagesObj, 0, pagenum, new HashMap<String,PDFObject>());
+    }
+
+    /**
+     * Get the numbers of all objects whose current definition starts at or
+     * behind the given offset in the file, e.g. the objects (re-)defined by
+     * incremental updates appended to the file. Objects inside an object
+     * stream count as defined where their object stream is.
+     *
+     * @param offset the offset in the file
+     * @return the object numbers
+     */
+    public Set<Integer> getObjectsDefinedAfter(int offset) {
+        Set<Integer> objNums = new HashSet<Integer>();
+        for (int objNum = 0; objNum < xrefEntries.length; objNum++) {
+            if (getDefinitionOffset(objNum) >= offset) {
+                objNums.add(objNum);
+            }
+        }
+        return objNums;
+    }
+
+    /**
+     * Get the numbers of the objects whose current definition may contain
+     * the given offset: the object (or all objects of the object stream)
+     * starting last at or before the offset, unless a cross reference
+     * section of the file lies in between.
+     *
+     * @param offset the offset in the file
+     * @return the object numbers, empty if no object contains the offset
+     */
+    public Set<Integer> getObjectsContaining(int offset) {
+        int start = -1;
+        for (int objNum = 0; objNum < xrefEntries.length; objNum++) {
+            int objOffset = getDefinitionOffset(objNum);
+            if (objOffset <= offset && objOffset > start) {
+                start = objOffset;
+            }
+        }
+
+        // the object ends before the xref section following it
+        for (int xrefOffset : xrefOffsets) {
+            if (xrefOffset > start && xrefOffset <= offset) {
+                start = -1;
+            }
+        }
+
+        Set<Integer> objNums = new HashSet<Integer>();
+        for (int objNum = 0; start >= 0 && objNum < xrefEntries.length; objNum++) {
+            if (getDefinitionOffset(objNum) == start) {
+                objNums.add(objNum);
+            }
+        }
+        return objNums;
+    }
+
+    /**
+     * Was an xref table or xref stream of this file read at the given
+     * offset, i.e. is it part of the chain of cross reference sections
+     * starting at the last startxref of the file.
+     *
+     * @param offset the offset in the file
+     * @return true if a cross reference section starts there
+     */
+    public boolean isXrefOffset(int offset) {
+        return xrefOffsets.contains(offset);
+    }
+
+    /**
+     * Get the offset where the current definition of an object starts,
+     * objects inside an object stream start where their object stream is.
+     *
+     * @param objNum the object number
+     * @return the offset, or -1 if the object is not defined in the file body
+     */
+    private int getDefinitionOffset(int objNum) {
+        PDFXrefEntry entry = xrefEntries[objNum];
+        if (entry == null) {
+            return -1;
+        }
+
+        if (entry.getType() == PDFXrefEntry.Type.OBJ_IN_STREAM) {
+            int streamNum = entry.getStream().getObjectNumber();
+            if (streamNum < 0 || streamNum >= xrefEntries.length) {
+                return -1;
+            }
+            entry = xrefEntries[streamNum];
+        }
+
+        if (entry == null || entry.getType() != PDFXrefEntry.Type.OBJ_IN_BODY) {
+            return -1;
+        }
+        return entry.getOffset();
+    }
+
     /**
      * Stop the rendering of a particular image on this page
      */
@@ -1739,6 +2065,18 @@ public class PDFFile {
      */
     private PDFPage createPage(int pagenum, PDFObject pageObj)
             throws IOException {
+        return createPage(pagenum, pageObj, cache);
+    }
+
+    /**
+     * Create a PDF Page object by finding the relevant inherited
+     * properties
+     *
+     * @param pageObj the PDF object for the page to be created
+     * @param cache the cache of the rendered images or null
+     */
+    private PDFPage createPage(int pagenum, PDFObject pageObj, Cache cache)
+            throws IOException {
         int rotation = 0;
         Rectangle2D mediabox = null; // second choice, if no crop
         Rectangle2D cropbox = null;  // first choice
@@ -330,6 +330,25 @@ public class PDFObject {
         return null;
     }
 
+    /**
+     * get the stream of this object as it is stored in the file, without
+     * decoding or decrypting it.  Will return null if this object isn't
+     * a STREAM.
+     * @return a read-only view of the encoded stream, or null
+     */
+    public ByteBuffer getRawStreamBuffer() throws IOException {
+        if (type == INDIRECT) {
+            return dereference().getRawStreamBuffer();
+        } else if (type == STREAM && stream != null) {
+            ByteBuffer streamBuf = stream.asReadOnlyBuffer();
+            streamBuf.rewind();
+            return streamBuf;
+        }
+
+        // wrong type
+        return null;
+    }
+
     /**
      * Get the decoded stream value
      */
@@ -707,6 +726,19 @@ public class PDFObject {
         }
     }
 
+    /**
+     * Get the number of the object an indirect object refers to.
+     * @return the referenced object number, or {@link #OBJ_NUM_EMBEDDED}
+     * if this is not an indirect object
+     */
+    public int getReferencedObjNum() {
+        if (type == INDIRECT) {
+            return ((PDFXref) value).getObjectNumber();
+        }
+
+        return OBJ_NUM_EMBEDDED;
+    }
+
     /**
      * Identify whether the object is currently an indirect/cross-reference
      * @return whether currently indirect
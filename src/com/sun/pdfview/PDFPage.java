@@ -74,6 +74,8 @@ public class PDFPage {
     private Cache cache;
     /** a map from image info to weak references to parsers that are active */
     private Map<ImageInfo,WeakReference> renderers;
+    /** digest of the contents and resources of the page, if known */
+    private byte[] contentDigest;
 
     /**
      * create a PDFPage with dimensions in bbox and rotation.
@@ -244,6 +246,54 @@ public class PDFPage {
         return image;
     }
 
+    /**
+     * Render the page into the given image in this thread. Unlike
+     * getImage, neither the image nor its renderer are stored in the
+     * cache or registered with this page, the caller owns the image.
+     *
+     * The image will contain the section of the page specified by the clip,
+     * scaled to fit in the size of the image.
+     *
+     * @param image the image to draw on, of any type
+     * @param clip the region in <b>page space</b> of the entire page to
+     *             display
+     * @param bgColor the color of the background, or null to draw no
+     *        background
+     */
+    public void renderImage(BufferedImage image, Rectangle2D clip,
+            Color bgColor) {
+        // all commands of the page are needed
+        try {
+            waitForFinish();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        ImageInfo info = new ImageInfo(image.getWidth(), image.getHeight(),
+                clip, bgColor);
+        PDFRenderer renderer = new PDFRenderer(this, info, image);
+        renderer.goBatch();
+    }
+
+    /**
+     * get the digest of everything the rendering of this page depends on,
+     * besides the bounding box and the rotation.  Pages of different files
+     * with the same digest look the same.
+     * @return the digest, or null if it hasn't been calculated
+     */
+    public byte[] getContentDigest() {
+        return contentDigest;
+    }
+
+    /**
+     * set the digest of the contents and resources of this page
+     * @param contentDigest the digest
+     */
+    public void setContentDigest(byte[] contentDigest) {
+        this.contentDigest = contentDigest;
+    }
+
     /**
      * get the page number used to lookup this page
      * @return the page number
@@ -576,16 +576,19 @@ public class PDFRenderer extends BaseWatchable implements Runnable {
         // execute the command
         Rectangle2D dirtyRegion = cmd.execute(this);
 
-        // append to the global dirty region
-        globalDirtyRegion = addDirtyRegion(dirtyRegion, globalDirtyRegion);
-        unupdatedRegion = addDirtyRegion(dirtyRegion, unupdatedRegion);
-
-        long now = System.currentTimeMillis();
-        if (now > then || rendererFinished()) {
-            // now tell any observers, so they can repaint
-            notifyObservers(bi, unupdatedRegion);
-            unupdatedRegion = null;
-            then = now + UPDATE_DURATION;
+        // nobody watches a batch, skip the progressive updates
+        if (!isBatch()) {
+            // append to the global dirty region
+            globalDirtyRegion = addDirtyRegion(dirtyRegion, globalDirtyRegion);
+            unupdatedRegion = addDirtyRegion(dirtyRegion, unupdatedRegion);
+
+            long now = System.currentTimeMillis();
+            if (now > then || rendererFinished()) {
+                // now tell any observers, so they can repaint
+                notifyObservers(bi, unupdatedRegion);
+                unupdatedRegion = null;
+                then = now + UPDATE_DURATION;
+            }
         }
 
         // if we are based on a reference to a graphics, don't hold on to it
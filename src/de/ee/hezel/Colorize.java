@@ -5,6 +5,10 @@ package de.ee.hezel;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+
+import de.ee.hezel.util.RasterOps;
 
 /**
  * Translation from gimp source code to java done by nwodb.com
@@ -30,6 +34,9 @@ public class Colorize {
 	int [] final_red_lookup;
 	int [] final_green_lookup;
 	int [] final_blue_lookup;
+	
+	// final color of every luminance including the lightness
+	int [] palette;
 
 	public Colorize( int red, int green, int blue )
 	{
@@ -97,43 +104,41 @@ public class Colorize {
 			final_green_lookup[i] = ( int )( color.getGreen() );
 			final_blue_lookup [i] = ( int )( color.getBlue() );
 		}
+		
+		palette = new int [MAX_COLOR];
+		for( int i = 0; i < MAX_COLOR; ++i )
+		{
+			int lum = adjustLightness( i );
+			palette[i] = ( final_red_lookup[lum] << 16 ) | ( final_green_lookup[lum] << 8 ) | final_blue_lookup[lum];
+		}
+	}
+	
+	private int adjustLightness( int lum )
+	{
+		if( lightness > 0 )
+		{
+			lum = (int)((double)lum * (100f - lightness) / 100f);
+			lum += 255f - (100f - lightness) * 255f / 100f;
+		}
+		else if( lightness < 0 )
+		{
+			lum = (int)(((double)lum * lightness + 100f) / 100f);
+		}
+		
+		return Math.max( 0, Math.min( lum, 255 ) );
 	}
 
 	public void doColorize( BufferedImage image )
 	{
+		int width = image.getWidth();
 		int height = image.getHeight();
-		int width;
-	
-		while( height-- != 0 )
-		{
-			width = image.getWidth();
-			while( width-- != 0 )
-			{
-				Color color = new Color( image.getRGB( width, height ) );
-			
-				int lum = lum_red_lookup  [color.getRed  ()] +
-			    		  lum_green_lookup[color.getGreen()] +
-			    		  lum_blue_lookup [color.getBlue ()];
-	
-				if( lightness > 0 )
-				{
-					lum = (int)((double)lum * (100f - lightness) / 100f);
-					lum += 255f - (100f - lightness) * 255f / 100f;
-				}
-				else if( lightness < 0 )
-				{
-					lum = (int)(((double)lum * lightness + 100f) / 100f);
-				}
-	
-				if(lum > 255) lum = 255;
-				
-				Color final_color = new Color( final_red_lookup[lum],
-	                                    	   final_green_lookup[lum],
-	                                    	   final_blue_lookup[lum],
-	                                    	   color.getAlpha() );
-	
-				image.setRGB( width, height, final_color.getRGB() );
-			}
-		}
+		
+		// the own pixels of int images, a copy otherwise
+		int[] pixels = PDFVisualiseDifference.getPixels( image );
+		RasterOps.colorize( pixels, width, height, lum_red_lookup, lum_green_lookup, lum_blue_lookup, palette );
+		
+		DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+		if( !(dataBuffer instanceof DataBufferInt) || ((DataBufferInt) dataBuffer).getData() != pixels )
+			image.setRGB( 0, 0, width, height, pixels, 0, width );
 	}
-}
\ No newline at end of file
+}
@@ -24,11 +24,13 @@
 package de.ee.hezel;
 
 import java.io.File;
-import java.util.Set;
+import java.io.IOException;
+import java.util.Collection;
 
 import org.apache.log4j.Logger;
 
 import de.ee.hezel.logger.DifferenceLogger;
+import de.ee.hezel.logger.JSONResultLogger;
 import de.ee.hezel.model.PDFInfoHolder;
 import de.ee.hezel.model.PDFInfoHolder.DifferenceType;
 import de.ee.hezel.model.PDFPageHolder;
@@ -36,6 +38,7 @@ import de.ee.hezel.util.AbstractJob;
 import de.ee.hezel.util.Job;
 import de.ee.hezel.util.JobListener;
 import de.ee.hezel.util.JobQueue;
+import de.ee.hezel.util.PNGWriter;
 
 /**
  * @author hezeln
@@ -49,6 +52,16 @@ public class PDFComparator implements JobListener {
 	private File logPath;
     private final int compareType;
     private boolean foundDifference;
+    
+    // save only cropped tiles around the differences
+    private boolean croppedOutput;
+    
+    // compare every reference with the documents of all sub directories of path 2
+    private boolean fanOut;
+    
+    // JSON Lines file for the results
+    private File jsonResultFile;
+    private JSONResultLogger jsonLogger;
 
     public PDFComparator(File logPath, int compareType) {
         this.compareType = compareType;    
@@ -71,14 +84,35 @@ public class PDFComparator implements JobListener {
 		// is any pdf pair different
 		foundDifference = false;
 		
-		// get all pdf pairs
-		Set<PDFInfoHolder> pdfInfoHolders = PDFCorpusAnalyser.getSimplePDFInfoHolders(path1, path2, prefix);
+		// machine readable results
+		jsonLogger = null;
+		if(jsonResultFile != null)
+		{
+			try {
+				jsonLogger = new JSONResultLogger(jsonResultFile);
+			} catch (IOException e) {
+				log.error("Unable to create the JSON result file " + jsonResultFile + ". Reason: " + e.getMessage(), e);
+			}
+		}
+		
+		// get all pdf pairs, the candidates of a reference follow each other
+		Collection<PDFInfoHolder> pdfInfoHolders = fanOut ? PDFCorpusAnalyser.getFanOutPDFInfoHolders(path1, path2, prefix) 
+				: PDFCorpusAnalyser.getSimplePDFInfoHolders(path1, path2, prefix);
 
 		// start 4 different tasks at the same time
 		JobQueue queue = new JobQueue(PARALLEL_JOBS);
 		for (PDFInfoHolder pdfInfoHolder : pdfInfoHolders) 
 		{    
-			CompareJob compareJob = new CompareJob(outputDir, pdfInfoHolder);
+			// every candidate directory gets its own output and log directory
+			File jobOutputDir = outputDir, jobLogPath = logPath;
+			if(pdfInfoHolder.getReference() != null)
+			{
+				String candidate = pdfInfoHolder.getPDFFile2().getParentFile().getName();
+				jobOutputDir = getSubDirectory(outputDir, candidate);
+				jobLogPath = getSubDirectory(logPath, candidate);
+			}
+			
+			CompareJob compareJob = new CompareJob(jobOutputDir, jobLogPath, pdfInfoHolder);
 			compareJob.addJobListener(this);
 			queue.addJob(compareJob);
 		}
@@ -93,6 +127,12 @@ public class PDFComparator implements JobListener {
             	log.error("Interrupted while waiting for jobs to finish", e);
             }
         }
+        
+        // the difference images and results are written in the background
+        PNGWriter.awaitCompletion();
+        PDFRenderCache.logStatistics();
+        if(jsonLogger != null)
+        	jsonLogger.close();
 		
 		long end = System.currentTimeMillis();
 		log.info("Execution time: "+ (end-start)+"ms");
@@ -100,6 +140,53 @@ public class PDFComparator implements JobListener {
 		return foundDifference;
 	}
 	
+    /**
+     * create the sub directory if necessary
+     * 
+     * @param parent can be null
+     * @param name
+     * @return sub directory or null if there is no parent
+     */
+    private static File getSubDirectory(File parent, String name)
+    {
+    	if(parent == null)
+    		return null;
+    	
+    	File dir = new File(parent, name);
+    	if(!dir.isDirectory() && !dir.mkdirs())
+    		log.error("Unable to create the directory " + dir);
+    	return dir;
+    }
+    
+    /**
+     * Compare every document of path 1 with the documents of the same name in 
+     * all sub directories of path 2. The structure of a reference document is 
+     * analysed once for all its candidates.
+     * 
+     * @param fanOut
+     */
+    public void setFanOut(boolean fanOut) {
+    	this.fanOut = fanOut;
+    }
+    
+    /**
+     * save only cropped tiles around the differences instead of entire pages
+     * 
+     * @param croppedOutput
+     */
+    public void setCroppedOutput(boolean croppedOutput) {
+    	this.croppedOutput = croppedOutput;
+    }
+    
+    /**
+     * write the results as JSON Lines in this file
+     * 
+     * @param jsonResultFile
+     */
+    public void setJSONResultFile(File jsonResultFile) {
+    	this.jsonResultFile = jsonResultFile;
+    }
+    
     @Override
     public void finished(Job job) {
         foundDifference |= ((CompareJob) job).hasDifference();     
@@ -116,8 +203,9 @@ public class PDFComparator implements JobListener {
         private PDFVisualiseDifference pdfVisualiseDifference;
         private PDFStructureComparator pdfStructureComparator;
     	private PDFCorpusAnalyser pdfCorpusAnaliser;
+    	private PDFRevisionAnalyser pdfRevisionAnalyser;
         
-        CompareJob(File outputDir, PDFInfoHolder pdfInfoHolder) {
+        CompareJob(File outputDir, File logPath, PDFInfoHolder pdfInfoHolder) {
             this.outputDir = outputDir;
             this.pdfInfoHolder = pdfInfoHolder;
             
@@ -126,8 +214,11 @@ public class PDFComparator implements JobListener {
             dlog = new DifferenceLogger(logPath, pdfInfoHolder.getFilename());
  
             pdfCorpusAnaliser = new PDFCorpusAnalyser(dlog);
+            pdfRevisionAnalyser = new PDFRevisionAnalyser();
             pdfVisualComparator = new PDFVisualComparator(outputDir, dlog, pdfInfoHolder);
             pdfVisualiseDifference = new PDFVisualiseDifference(outputDir, dlog, pdfInfoHolder);
+            pdfVisualComparator.setCroppedOutput(croppedOutput);
+            pdfVisualiseDifference.setCroppedOutput(croppedOutput);
             pdfStructureComparator = new PDFStructureComparator((compareType == 1), dlog, pdfInfoHolder);
 	    }
 
@@ -147,20 +238,32 @@ public class PDFComparator implements JobListener {
                  
                  log.info(pdfInfoHolder.getFilename()+": Process "+pdfInfoHolder.getFilename()+".pdf");
                  
-                 // Analyze the content of the pdf document
-                 log.info(pdfInfoHolder.getFilename()+": analyse PDF structure ...");
-                 pdfCorpusAnaliser.analyse(pdfInfoHolder);
-                 
-                 // compare SIMPLE or STRUCTURAL
-                 log.info(pdfInfoHolder.getFilename()+": compare PDF structure ...");
-                 pdfStructureComparator.compare();
+                 // find pages which are unchanged by incremental updates
+                 pdfRevisionAnalyser.analyse(pdfInfoHolder);
                  
-                 // compare VISUAL and print the result or simply display the already found differences
-                 log.info(pdfInfoHolder.getFilename()+": visualise differences ...");
-                 if(compareType == 3)
-                     pdfVisualComparator.compare();
+                 // compare PIXEL needs no structure
+                 if(compareType == 4)
+                 {
+                	 log.info(pdfInfoHolder.getFilename()+": compare rendered pages ...");
+                	 pdfVisualComparator.comparePages();
+                 }
                  else
-                     pdfVisualiseDifference.visualise();
+                 {
+	                 // Analyze the content of the pdf document
+	                 log.info(pdfInfoHolder.getFilename()+": analyse PDF structure ...");
+	                 pdfCorpusAnaliser.analyse(pdfInfoHolder);
+	                 
+	                 // compare SIMPLE or STRUCTURAL
+	                 log.info(pdfInfoHolder.getFilename()+": compare PDF structure ...");
+	                 pdfStructureComparator.compare();
+	                 
+	                 // compare VISUAL and print the result or simply display the already found differences
+	                 log.info(pdfInfoHolder.getFilename()+": visualise differences ...");
+	                 if(compareType == 3)
+	                     pdfVisualComparator.compare();
+	                 else
+	                     pdfVisualiseDifference.visualise();
+                 }
                  
                  // print the results
                  printResult(pdfInfoHolder);
@@ -175,6 +278,8 @@ public class PDFComparator implements JobListener {
         	// calc time needed
             long end1 = System.currentTimeMillis();
             log.info(pdfInfoHolder.getFilename()+": processing took "+ (end1-start1)+"ms");
+            if(jsonLogger != null)
+            	jsonLogger.logResult(pdfInfoHolder, end1-start1);
             log.info("");
             
         	// release all resources
@@ -193,8 +298,11 @@ public class PDFComparator implements JobListener {
         	// are not needed anymore
         	dlog = null;
         	pdfInfoHolder.releasePDFFiles();
+        	if(pdfInfoHolder.getReference() != null)
+        		pdfInfoHolder.getReference().releaseComparison();
         	pdfInfoHolder = null;
         	pdfCorpusAnaliser = null;
+        	pdfRevisionAnalyser = null;
         	pdfVisualComparator = null;
         	pdfVisualiseDifference = null;
         	pdfStructureComparator = null;
@@ -71,21 +71,24 @@ public class PDFCompareMain {
 		// not enough parameters
 		if (args.length < 1) {
 			System.out.println("usage: java -jar PDFCompare.jar "
-				    + "<path 1> <path 2> [-output <true/false>] [-visualise <path 3>] [-log <path 4>] [-compare <compare type>] [-prefix <pdf prefix>]" + newline
+				    + "<path 1> <path 2> [-output <true/false>] [-visualise <path 3>] [-log <path 4>] [-compare <compare type>] [-prefix <pdf prefix>] [-crop <true/false>] [-json <path 5>] [-fanout <true/false>]" + newline
 		    	    + newline
 		    		+ "<path 1> = path with PDF documents from old version" + newline
 		    		+ "<path 2> = path with PDF documents from new version" + newline
 		    		+ "[output] = console output" + newline
 		    		+ "[visualise] = output folder for visualizing differnces " + newline
 		    		+ "[log] = path for log files and differnce images" + newline
-		    		+ "[compare type] = type of comparison <\"SIMPLE\" | \"STRUCTURAL\" | \"VISUAL\">" + newline
-		    		+ "[prefix] = compare only pdfs where the name starts with this prefix" + newline);
+		    		+ "[compare type] = type of comparison <\"SIMPLE\" | \"STRUCTURAL\" | \"VISUAL\" | \"PIXEL\">" + newline
+		    		+ "[prefix] = compare only pdfs where the name starts with this prefix" + newline
+		    		+ "[crop] = save only cropped tiles around the differences and an index file" + newline
+		    		+ "[json] = file for the results as JSON Lines" + newline
+		    		+ "[fanout] = compare path 1 with every sub directory of path 2" + newline);
 		    return;
 		}
 		
-		boolean output = false;
-		File targetPath = null, logPath = null;
-		int compareType = 1; // simple (Modes: SIMPLE/STRUCTURAL/VISUAL)
+		boolean output = false, croppedOutput = false, fanOut = false;
+		File targetPath = null, logPath = null, jsonPath = null;
+		int compareType = 1; // simple (Modes: SIMPLE/STRUCTURAL/VISUAL/PIXEL)
         String prefix = null;
 		
 		// read the incoming arguments
@@ -102,8 +105,16 @@ public class PDFCompareMain {
 		    		compareType = 2;
 		    	else if(nextArg.equalsIgnoreCase("VISUAL"))
 		    		compareType = 3;
+		    	else if(nextArg.equalsIgnoreCase("PIXEL"))
+		    		compareType = 4;
 		    } else if ((args[i]).equals("-prefix")) {
 		        prefix = args[++i];
+		    } else if (args[i].equals("-crop")) {
+		    	croppedOutput = Boolean.parseBoolean(args[++i]);
+		    } else if (args[i].equals("-json")) {
+		    	jsonPath = new File(args[++i]);
+		    } else if (args[i].equals("-fanout")) {
+		    	fanOut = Boolean.parseBoolean(args[++i]);
 		    }
 		}
 		
@@ -129,6 +140,9 @@ public class PDFCompareMain {
 		// compare the files in path 1 with the files in path 2 and 
 		// save the results in path 3 (if given)
 		PDFComparator pdfComparer = new PDFComparator(logPath, compareType);
+		pdfComparer.setCroppedOutput(croppedOutput);
+		pdfComparer.setJSONResultFile(jsonPath);
+		pdfComparer.setFanOut(fanOut);
         boolean foundDifference = pdfComparer.run(path1, path2, targetPath, prefix);
 		
         // exit parameter (interesting for jenkins)
@@ -169,7 +183,7 @@ public class PDFCompareMain {
 	
 			props.setProperty("log4j.appender.stdout", "org.apache.log4j.ConsoleAppender");
 			props.setProperty("log4j.appender.stdout.layout", "org.apache.log4j.PatternLayout");
-			props.setProperty("log4j.appender.stdout.layout.ConversionPattern", "%5p [%t] (%F:%L) - %m%n");
+			props.setProperty("log4j.appender.stdout.layout.ConversionPattern", "%5p [%t] (%c{1}) - %m%n");
 		}
 		else
 			props.setProperty("log4j.rootLogger", "debug, errorfile, resultfile");
@@ -180,7 +194,7 @@ public class PDFCompareMain {
 		props.setProperty("log4j.appender.errorfile.Append", "false");
 		props.setProperty("log4j.appender.errorfile.Threshold", "ERROR");
 		props.setProperty("log4j.appender.errorfile.layout", "org.apache.log4j.PatternLayout");
-		props.setProperty("log4j.appender.errorfile.layout.ConversionPattern", "%d %p %F - %m%n");
+		props.setProperty("log4j.appender.errorfile.layout.ConversionPattern", "%d %p %c{1} - %m%n");
 		
 		File logfile1 = new File(logPath, "_results.log");
 		props.setProperty("log4j.appender.resultfile", "org.apache.log4j.FileAppender");
@@ -193,7 +207,7 @@ public class PDFCompareMain {
 		props.setProperty("log4j.appender.resultfile.filter.ID.LevelMin", "INFO");
 		props.setProperty("log4j.appender.resultfile.filter.ID.LevelMax", "INFO");
 		props.setProperty("log4j.appender.resultfile.layout", "org.apache.log4j.PatternLayout");
-		props.setProperty("log4j.appender.resultfile.layout.ConversionPattern", "%d %p %F - %m%n");
+		props.setProperty("log4j.appender.resultfile.layout.ConversionPattern", "%d %p %c{1} - %m%n");
 		
 		return props;
 	}
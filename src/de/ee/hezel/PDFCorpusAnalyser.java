@@ -25,8 +25,10 @@ package de.ee.hezel;
 
 import java.awt.geom.Rectangle2D;
 import java.io.File;
+import java.io.FileFilter;
 import java.io.FilenameFilter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -36,6 +38,8 @@ import org.apache.commons.io.filefilter.AndFileFilter;
 import org.apache.commons.io.filefilter.PrefixFileFilter;
 import org.apache.commons.io.filefilter.SuffixFileFilter;
 import org.apache.log4j.Logger;
+import org.icepdf.core.io.SeekableByteBufferInputStream;
+import org.icepdf.core.io.SeekableInput;
 import org.icepdf.core.pobjects.Document;
 import org.icepdf.core.pobjects.PDimension;
 import org.icepdf.core.pobjects.Page;
@@ -45,13 +49,18 @@ import org.icepdf.core.pobjects.graphics.text.PageText;
 import org.icepdf.core.pobjects.graphics.text.WordText;
 import org.icepdf.core.util.GraphicsRenderingHints;
 
+import com.sun.pdfview.PDFFile;
+
 import de.ee.hezel.logger.ICompareLogger;
 import de.ee.hezel.model.PDFHolder;
 import de.ee.hezel.model.PDFInfoHolder;
+import de.ee.hezel.model.PDFLineHolder;
 import de.ee.hezel.model.PDFPageHolder;
+import de.ee.hezel.model.PDFReference;
 import de.ee.hezel.model.PDFInfoHolder.DifferenceType;
 import de.ee.hezel.model.pdfelemente.PDFImageHolder;
 import de.ee.hezel.model.pdfelemente.PDFTextHolder;
+import de.ee.hezel.util.WordDictionary;
 
 /**
  * This class analizes the structure of the pdf files
@@ -93,10 +102,16 @@ public class PDFCorpusAnalyser extends AbstractPDFCompare {
 		
 		try {
 			// get pdf document -> create a PDFHolder objects, which contains the entire structure of the document
-			pdfFile1.setFile(pdfInfoHolder.getPDFFile1().getAbsolutePath());
-			pdfInfoHolder.setPDFStructure1(analysePDF(pdfFile1, pdfInfoHolder));
+			// the structure of a shared reference gets analysed only once
+			if(pdfInfoHolder.getReference() != null)
+				pdfInfoHolder.setPDFStructure1(copyReferenceStructure(pdfInfoHolder.getReference(), pdfInfoHolder));
+			else
+			{
+				openDocument(pdfFile1, pdfInfoHolder.getPDFFile1(), pdfInfoHolder.getPDF1());
+				pdfInfoHolder.setPDFStructure1(analysePDF(pdfFile1, pdfInfoHolder));
+			}
 			
-			pdfFile2.setFile(pdfInfoHolder.getPDFFile2().getAbsolutePath());
+			openDocument(pdfFile2, pdfInfoHolder.getPDFFile2(), pdfInfoHolder.getPDF2());
 			pdfInfoHolder.setPDFStructure2(analysePDF(pdfFile2, pdfInfoHolder));	
 			
 		} catch (Exception e) {
@@ -111,15 +126,70 @@ public class PDFCorpusAnalyser extends AbstractPDFCompare {
 		if(pdfInfoHolder.getPDF1().getNumPages() != pdfInfoHolder.getPDF2().getNumPages())
 		{
 			pdfInfoHolder.setDifferent(DifferenceType.MISSINGPAGE);
-			diff.log(pdfInfoHolder.getFilename()+": Different amount of pages: "+pdfFile1.getNumberOfPages() +" to "+pdfFile2.getNumberOfPages());
+			diff.log(pdfInfoHolder.getFilename()+": Different amount of pages: "+pdfInfoHolder.getPDF1().getNumPages() +" to "+pdfFile2.getNumberOfPages());
 		}	
 	}
 	
+	/**
+	 * Open the document on the memory mapping of the already loaded 
+	 * pdf file, both libraries read the same pages of memory.
+	 * 
+	 * @param document
+	 * @param file
+	 * @param pdf loaded pdf file or null to read the file again
+	 * @throws Exception
+	 */
+	private void openDocument(Document document, File file, PDFFile pdf) throws Exception
+	{
+		if(pdf != null)
+			document.setInputStream((SeekableInput) new SeekableByteBufferInputStream(pdf.getFileBuffer()), file.getAbsolutePath());
+		else
+			document.setFile(file.getAbsolutePath());
+	}
+	
+	/**
+	 * Copy of the structure of the shared reference, the structure 
+	 * gets analysed by the first comparison which needs it.
+	 * 
+	 * @param reference
+	 * @param pdfInfoHolder
+	 * @return
+	 * @throws Exception
+	 */
+	private PDFHolder copyReferenceStructure(PDFReference reference, PDFInfoHolder pdfInfoHolder) throws Exception
+	{
+		PDFHolder structure;
+		synchronized (reference) {
+			structure = reference.getStructure();
+			if(structure == null)
+			{
+				Document pdfFile = new Document();
+				try {
+					openDocument(pdfFile, reference.getPDFFile(), pdfInfoHolder.getPDF1());
+					structure = analysePDF(pdfFile, null);
+				} finally {
+					pdfFile.dispose();
+				}
+				reference.setStructure(structure);
+			}
+		}
+		
+		// pages unchanged by an incremental update stay empty
+		PDFHolder copy = structure.copy();
+		for (PDFPageHolder pdfPageHolder : structure.getPageHolders()) 
+		{
+			if(pdfInfoHolder.isUnchangedPage(pdfPageHolder.getPageNumber()))
+				copy.addPageHolders(new PDFPageHolder(pdfPageHolder.getPageNumber(), pdfPageHolder.getPageWidth(), pdfPageHolder.getPageHeight()));
+		}
+		
+		return copy;
+	}
+	
 	/**
 	 * Exctract the structure of the pdf document and save it in the pdfholder object
 	 * 
 	 * @param pdfFile
-	 * @param pdfInfoHolder
+	 * @param pdfInfoHolder null to analyse all pages
 	 * @return PDFHolder
 	 */
 	private PDFHolder analysePDF(Document pdfFile, PDFInfoHolder pdfInfoHolder)
@@ -137,8 +207,12 @@ public class PDFCorpusAnalyser extends AbstractPDFCompare {
 	        float pageWidth = sz.getWidth();
 	        float pageHeight = sz.getHeight();
 	        
-	        // analize the structure of this page
-	        PDFPageHolder pdfPageHolder = analysePDFPage(pdfInfoHolder, page, pageNumber, pageWidth, pageHeight);
+	        // analize the structure of this page, pages unchanged by an incremental update stay empty
+	        PDFPageHolder pdfPageHolder;
+	        if(pdfInfoHolder != null && pdfInfoHolder.isUnchangedPage(pageNumber))
+	        	pdfPageHolder = new PDFPageHolder(pageNumber, pageWidth, pageHeight);
+	        else
+	        	pdfPageHolder = analysePDFPage(pdfInfoHolder, page, pageNumber, pageWidth, pageHeight);
 			
 			// release the page resource
 			pdfFile.getPageTree().releasePage(pageNumber, this);
@@ -170,6 +244,9 @@ public class PDFCorpusAnalyser extends AbstractPDFCompare {
 		// create for all text elements, structure holder 
 		for (LineText lt : pt.getPageLines()) 
 		{
+			// remember which words belong to the same line
+			PDFLineHolder pdfLineHolder = new PDFLineHolder();
+			
 			for (WordText wt : lt.getWords()) 
 			{
 				// ignore white spaces
@@ -182,10 +259,15 @@ public class PDFCorpusAnalyser extends AbstractPDFCompare {
 				// pdf documents does have their coordinate origin in the lower left corner
 				double y = (pageHeight-rect.y)-rect.height;
 				
-				// create the text holder
-				PDFTextHolder pdfTextHolder = new PDFTextHolder(rect.x, y, rect.width, rect.height, wt.getText());
+				// create the text holder, the text gets compared by its id in the corpus dictionary
+				String text = wt.getText();
+				PDFTextHolder pdfTextHolder = new PDFTextHolder(rect.x, y, rect.width, rect.height, text, WordDictionary.getShared().getId(text));
 				pdfPageHolder.addElement(pdfTextHolder);
+				pdfLineHolder.addWord(pdfTextHolder);
 			}
+			
+			if(!pdfLineHolder.isEmpty())
+				pdfPageHolder.addLine(pdfLineHolder);
 		}
 		
 		// get all shapes for this page (e.g. images)
@@ -223,17 +305,8 @@ public class PDFCorpusAnalyser extends AbstractPDFCompare {
 		// are those valid pathes
 		if(pdfs1 != null && pdfs2 != null && pdfs1.isDirectory() && pdfs2.isDirectory())
 		{
-			// create a filter to only get pdf files
-		    List<FilenameFilter> filters = new ArrayList<FilenameFilter>();
-		    if (null != prefix && prefix.length() > 0 ) {
-	            PrefixFileFilter filter = new PrefixFileFilter(prefix, IOCase.SYSTEM);
-	            filters.add(filter);
-		    }
-		    filters.add(new SuffixFileFilter(".pdf", IOCase.INSENSITIVE));
-            FilenameFilter filter = new AndFileFilter(filters);
-            
 			//get all pdf file sin this folder
-			String[] pdfDocuments1 = pdfs1.list(filter);
+			String[] pdfDocuments1 = pdfs1.list(getPDFFilter(prefix));
 			
 			for (int i=0; i<pdfDocuments1.length; i++) 
 			{	
@@ -260,4 +333,68 @@ public class PDFCorpusAnalyser extends AbstractPDFCompare {
 		
 		return pdfInfoHolders;
 	}
+	
+	/**
+	 * Compare every reference document with the documents of the same 
+	 * name in all sub directories of the 2nd directory (e.g. one per 
+	 * environment). The comparisons of a reference share its structure
+	 * and follow each other, this way its page images are still cached.
+	 * 
+	 * @param references directory with the reference documents
+	 * @param candidates directory with a sub directory for each candidate
+	 * @param prefix
+	 * @return pdf pairs grouped by their reference
+	 */
+	public static List<PDFInfoHolder> getFanOutPDFInfoHolders(File references, File candidates, String prefix)
+	{
+		List<PDFInfoHolder> pdfInfoHolders = new ArrayList<PDFInfoHolder>();
+		
+		// are those valid pathes
+		if(references == null || candidates == null || !references.isDirectory() || !candidates.isDirectory())
+		{
+			log.error("The path is not valid.");
+			return pdfInfoHolders;
+		}
+		
+		File[] candidateDirs = candidates.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.isDirectory();
+			}
+		});
+		Arrays.sort(candidateDirs);
+		
+		String[] pdfDocuments = references.list(getPDFFilter(prefix));
+		Arrays.sort(pdfDocuments);
+		for (String pdfFilename : pdfDocuments) 
+		{
+			PDFReference reference = new PDFReference(new File(references, pdfFilename));
+			for (File candidateDir : candidateDirs) 
+			{
+				PDFInfoHolder newPDFInfoHolder = new PDFInfoHolder(reference.getPDFFile(), new File(candidateDir, pdfFilename));
+				newPDFInfoHolder.setReference(reference);
+				reference.addComparison();
+				pdfInfoHolders.add(newPDFInfoHolder);
+			}
+		}
+		
+		return pdfInfoHolders;
+	}
+	
+	/**
+	 * filter for pdf documents starting with the prefix
+	 * 
+	 * @param prefix can be null
+	 * @return
+	 */
+	private static FilenameFilter getPDFFilter(String prefix)
+	{
+	    List<FilenameFilter> filters = new ArrayList<FilenameFilter>();
+	    if (null != prefix && prefix.length() > 0 ) {
+            PrefixFileFilter filter = new PrefixFileFilter(prefix, IOCase.SYSTEM);
+            filters.add(filter);
+	    }
+	    filters.add(new SuffixFileFilter(".pdf", IOCase.INSENSITIVE));
+        return new AndFileFilter(filters);
+	}
 }
@@ -0,0 +1,196 @@
+/*
+* PDFDifferenceMap
+*
+* Copyright (c) 2012, E&E information consultants AG. All rights reserved.
+* Authors:
+*   Peter Jentsch
+*   Nico Hezel
+*
+* This library is free software; you can redistribute it and/or
+* modify it under the terms of the GNU Lesser General Public
+* License as published by the Free Software Foundation; either
+* version 2.1 of the License, or (at your option) any later version.
+*
+* This library is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this library; if not, write to the Free Software
+* Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+* MA 02110-1301 USA
+*/
+package de.ee.hezel;
+
+import de.ee.hezel.util.RasterPool;
+
+/**
+ * Pixel differences of two page images as a summed-area table.
+ *
+ * The table is calculated once per page. Afterwards the amount of
+ * different pixels of every rectangle of the page is available
+ * in constant time.
+ *
+ * The color difference of a pixel is the sum of the absolute
+ * differences of its red, green and blue value (3 times the mean
+ * color difference). Gray images count their difference 3 times.
+ *
+ * @author hezeln
+ *
+ */
+public class PDFDifferenceMap {
+
+	// mean color difference, beyond which a pixel counts as different
+	static final int PIXEL_THRESHOLD = 5;
+
+	private final int width;
+	private final int height;
+
+	// summed-area table with an additional leading row and column of zeros
+	private int[] count;
+
+	public PDFDifferenceMap(int[] img1Pixels, int[] img2Pixels, int width, int height)
+	{
+		this(img1Pixels, img2Pixels, width, height, null);
+	}
+
+	/**
+	 * Only the pixels of different tiles get compared, the
+	 * others are known to be identical.
+	 *
+	 * @param img1Pixels
+	 * @param img2Pixels
+	 * @param width
+	 * @param height
+	 * @param differentTiles of PDFTileChecksum, null to compare all pixels
+	 */
+	public PDFDifferenceMap(int[] img1Pixels, int[] img2Pixels, int width, int height, boolean[] differentTiles)
+	{
+		this(img1Pixels, img2Pixels, null, null, width, height, differentTiles);
+	}
+
+	/**
+	 * Differences of two gray images, only the pixels of different tiles get compared.
+	 *
+	 * @param img1Gray
+	 * @param img2Gray
+	 * @param width
+	 * @param height
+	 * @param differentTiles of PDFTileChecksum, null to compare all pixels
+	 */
+	public PDFDifferenceMap(byte[] img1Gray, byte[] img2Gray, int width, int height, boolean[] differentTiles)
+	{
+		this(null, null, img1Gray, img2Gray, width, height, differentTiles);
+	}
+
+	private PDFDifferenceMap(int[] img1Pixels, int[] img2Pixels, byte[] img1Gray, byte[] img2Gray, int width, int height, boolean[] differentTiles)
+	{
+		this.width = width;
+		this.height = height;
+
+		// identical pages need no table
+		if(differentTiles != null && !PDFTileChecksum.isAnyDifferent(differentTiles))
+			return;
+
+		int stride = width + 1;
+		count = RasterPool.leaseCleared(stride * (height + 1));
+
+		int tileSize = (differentTiles != null) ? PDFTileChecksum.TILE_SIZE : Math.max(1, width);
+		int tileColumns = (width + tileSize - 1) / tileSize;
+
+		for (int y = 0; y < height; y++)
+		{
+			// sums of the current row
+			int rowCount = 0;
+
+			int pos = y * width;
+			int idx = (y + 1) * stride + 1;
+			int tile = (y / tileSize) * tileColumns;
+			for (int x = 0; x < width; tile++)
+			{
+				int end = Math.min(x + tileSize, width);
+				boolean compare = (differentTiles == null || differentTiles[tile]);
+
+				for (; x < end; x++, pos++, idx++)
+				{
+					int colorDiff = !compare ? 0 : (img1Gray != null) ? grayDifference(img1Gray[pos], img2Gray[pos]) : colorDifference(img1Pixels[pos], img2Pixels[pos]);
+					if(colorDiff > 3 * PIXEL_THRESHOLD)
+						rowCount++;
+
+					count[idx] = count[idx - stride] + rowCount;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Return the table of the different pixels to the raster pool,
+	 * afterwards the amount of different pixels is 0 everywhere.
+	 */
+	public void release()
+	{
+		RasterPool.release(count);
+		count = null;
+	}
+
+	/**
+	 * sum of the absolute differences of the red, green and blue value
+	 *
+	 * @param pixel1
+	 * @param pixel2
+	 * @return
+	 */
+	static int colorDifference(int pixel1, int pixel2)
+	{
+		if(pixel1 == pixel2)
+			return 0;
+
+		int r_diff = Math.abs(((pixel1 >> 16) & 255) - ((pixel2 >> 16) & 255));
+		int g_diff = Math.abs(((pixel1 >> 8) & 255) - ((pixel2 >> 8) & 255));
+		int b_diff = Math.abs((pixel1 & 255) - (pixel2 & 255));
+		return r_diff + g_diff + b_diff;
+	}
+
+	/**
+	 * difference of two gray values in the scale of colorDifference
+	 *
+	 * @param gray1
+	 * @param gray2
+	 * @return
+	 */
+	static int grayDifference(byte gray1, byte gray2)
+	{
+		return 3 * Math.abs((gray1 & 255) - (gray2 & 255));
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	/**
+	 * amount of different pixels inside the rectangle
+	 *
+	 * @param x
+	 * @param y
+	 * @param w
+	 * @param h
+	 * @return
+	 */
+	public int getCount(int x, int y, int w, int h)
+	{
+		if(count == null)
+			return 0;
+
+		int stride = width + 1;
+		int top = y * stride + x;
+		int bottom = (y + h) * stride + x;
+		return count[bottom + w] - count[bottom] - count[top + w] + count[top];
+	}
+}
@@ -0,0 +1,231 @@
+/*
+* PDFDifferenceMask
+*
+* Copyright (c) 2012, E&E information consultants AG. All rights reserved.
+* Authors:
+*   Peter Jentsch
+*   Nico Hezel
+*
+* This library is free software; you can redistribute it and/or
+* modify it under the terms of the GNU Lesser General Public
+* License as published by the Free Software Foundation; either
+* version 2.1 of the License, or (at your option) any later version.
+*
+* This library is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this library; if not, write to the Free Software
+* Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+* MA 02110-1301 USA
+*/
+package de.ee.hezel;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Thresholded difference of two page images and its connected regions.
+ *
+ * The different pixels are counted in square blocks of the page. Neighbouring
+ * blocks (8-connected) with different pixels form a region, this way the
+ * pieces of a changed glyph or word end up in the same region.
+ * A block size of 1 labels the pixels itself.
+ *
+ * @author hezeln
+ *
+ */
+public class PDFDifferenceMask {
+
+	private final int width;
+	private final int height;
+	private final int blockSize;
+	private final int columns;
+	private final int rows;
+
+	// amount of different pixels per block
+	private final int[] blocks;
+	private int pixelCount;
+
+	public PDFDifferenceMask(int[] img1Pixels, int[] img2Pixels, int width, int height, int blockSize)
+	{
+		this(img1Pixels, img2Pixels, width, height, blockSize, null);
+	}
+
+	/**
+	 * Only the pixels of different tiles get compared, the
+	 * others are known to be identical.
+	 *
+	 * @param img1Pixels
+	 * @param img2Pixels
+	 * @param width
+	 * @param height
+	 * @param blockSize
+	 * @param differentTiles of PDFTileChecksum, null to compare all pixels
+	 */
+	public PDFDifferenceMask(int[] img1Pixels, int[] img2Pixels, int width, int height, int blockSize, boolean[] differentTiles)
+	{
+		this(img1Pixels, img2Pixels, null, null, width, height, blockSize, differentTiles);
+	}
+
+	/**
+	 * Difference of two gray images, only the pixels of different tiles get compared.
+	 *
+	 * @param img1Gray
+	 * @param img2Gray
+	 * @param width
+	 * @param height
+	 * @param blockSize
+	 * @param differentTiles of PDFTileChecksum, null to compare all pixels
+	 */
+	public PDFDifferenceMask(byte[] img1Gray, byte[] img2Gray, int width, int height, int blockSize, boolean[] differentTiles)
+	{
+		this(null, null, img1Gray, img2Gray, width, height, blockSize, differentTiles);
+	}
+
+	private PDFDifferenceMask(int[] img1Pixels, int[] img2Pixels, byte[] img1Gray, byte[] img2Gray, int width, int height, int blockSize, boolean[] differentTiles)
+	{
+		this.width = width;
+		this.height = height;
+		this.blockSize = blockSize;
+		this.columns = (width + blockSize - 1) / blockSize;
+		this.rows = (height + blockSize - 1) / blockSize;
+		this.blocks = new int[columns * rows];
+
+		int tileSize = (differentTiles != null) ? PDFTileChecksum.TILE_SIZE : Math.max(1, width);
+		int tileColumns = (width + tileSize - 1) / tileSize;
+
+		for (int y = 0; y < height; y++)
+		{
+			int blockRow = (y / blockSize) * columns;
+			int tile = (y / tileSize) * tileColumns;
+			for (int x = 0; x < width; tile++)
+			{
+				int end = Math.min(x + tileSize, width);
+
+				// identical tile
+				if(differentTiles != null && !differentTiles[tile])
+				{
+					x = end;
+					continue;
+				}
+
+				for (int pos = y * width + x; x < end; x++, pos++)
+				{
+					int colorDiff = (img1Gray != null) ? PDFDifferenceMap.grayDifference(img1Gray[pos], img2Gray[pos]) 
+							: PDFDifferenceMap.colorDifference(img1Pixels[pos], img2Pixels[pos]);
+
+					// mean color difference above the threshold
+					if(colorDiff > 3 * PDFDifferenceMap.PIXEL_THRESHOLD)
+					{
+						blocks[blockRow + x / blockSize]++;
+						pixelCount++;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * amount of different pixels of the entire page
+	 *
+	 * @return
+	 */
+	public int getPixelCount()
+	{
+		return pixelCount;
+	}
+
+	/**
+	 * Label the connected regions of different blocks.
+	 *
+	 * @param minPixels regions with less different pixels are ignored
+	 * @return regions with their boundaries in pixel coordinates
+	 */
+	public List<PixelRegion> findRegions(int minPixels)
+	{
+		List<PixelRegion> regions = new ArrayList<PixelRegion>();
+		if(pixelCount == 0)
+			return regions;
+
+		boolean[] labeled = new boolean[blocks.length];
+		int[] stack = new int[blocks.length];
+
+		for (int start = 0; start < blocks.length; start++)
+		{
+			if(blocks[start] == 0 || labeled[start])
+				continue;
+
+			// flood fill the region
+			int minColumn = columns, maxColumn = -1, minRow = rows, maxRow = -1;
+			int regionPixels = 0;
+
+			int size = 0;
+			stack[size++] = start;
+			labeled[start] = true;
+			while(size > 0)
+			{
+				int block = stack[--size];
+				int column = block % columns;
+				int row = block / columns;
+
+				regionPixels += blocks[block];
+				minColumn = Math.min(minColumn, column);
+				maxColumn = Math.max(maxColumn, column);
+				minRow = Math.min(minRow, row);
+				maxRow = Math.max(maxRow, row);
+
+				for (int r = Math.max(0, row - 1); r <= Math.min(rows - 1, row + 1); r++)
+				{
+					for (int c = Math.max(0, column - 1); c <= Math.min(columns - 1, column + 1); c++)
+					{
+						int neighbour = r * columns + c;
+						if(blocks[neighbour] != 0 && !labeled[neighbour])
+						{
+							labeled[neighbour] = true;
+							stack[size++] = neighbour;
+						}
+					}
+				}
+			}
+
+			if(regionPixels < minPixels)
+				continue;
+
+			int x = minColumn * blockSize;
+			int y = minRow * blockSize;
+			Rectangle bounds = new Rectangle(x, y, Math.min((maxColumn + 1) * blockSize, width) - x, Math.min((maxRow + 1) * blockSize, height) - y);
+			regions.add(new PixelRegion(bounds, regionPixels));
+		}
+
+		return regions;
+	}
+
+	/**
+	 * a connected region of different pixels
+	 */
+	public static class PixelRegion
+	{
+		private final Rectangle bounds;
+		private final int pixelCount;
+
+		PixelRegion(Rectangle bounds, int pixelCount)
+		{
+			this.bounds = bounds;
+			this.pixelCount = pixelCount;
+		}
+
+		public Rectangle getBounds()
+		{
+			return bounds;
+		}
+
+		public int getPixelCount()
+		{
+			return pixelCount;
+		}
+	}
+}
@@ -0,0 +1,288 @@
+/*
+* PDFRasterStore
+*
+* Copyright (c) 2012, E&E information consultants AG. All rights reserved.
+* Authors:
+*   Peter Jentsch
+*   Nico Hezel
+*
+* This library is free software; you can redistribute it and/or
+* modify it under the terms of the GNU Lesser General Public
+* License as published by the Free Software Foundation; either
+* version 2.1 of the License, or (at your option) any later version.
+*
+* This library is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this library; if not, write to the Free Software
+* Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+* MA 02110-1301 USA
+*/
+package de.ee.hezel;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import de.ee.hezel.util.RasterPool;
+
+/**
+ * Rendered page images of a reference document on the disk.
+ *
+ * The reference documents rarely change between two runs. The raw pixels
+ * of their rendered pages are stored in a file per page, which gets mapped
+ * into memory instead of rendering the page again. A file is identified by 
+ * the SHA-1 of the document, the page number, the size and type of the image 
+ * and the RENDERER_VERSION, which has to be increased whenever the rendering 
+ * changes. 
+ * 
+ * The store is used if the system property DIRECTORY names the folder 
+ * for the files. Files are written under a temporary name and renamed 
+ * afterwards, parallel jobs never see incomplete files.
+ *
+ * @author hezeln
+ *
+ */
+public class PDFRasterStore {
+
+	static Logger log = Logger.getLogger(PDFRasterStore.class.getName());
+	
+	// folder of the stored pages, null disables the store
+	static final String DIRECTORY = System.getProperty(PDFRasterStore.class.getName() + ".DIRECTORY");
+	
+	// increase if the rendered images change
+	static final int RENDERER_VERSION = 1;
+	
+	// "PDFR", the file starts with MAGIC, RENDERER_VERSION, width, height and image type
+	private static final int MAGIC = 0x50444652;
+	private static final int HEADER_SIZE = 5 * 4;
+	
+	// hashes of the recently opened documents by path, length and modification time
+	private static final int MAX_HASHES = 1024;
+	private static final Map<String, String> documentHashes = new LinkedHashMap<String, String>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > MAX_HASHES;
+		}
+	};
+	
+	private final File directory;
+	private final String documentHash;
+	
+	private PDFRasterStore(File directory, String documentHash)
+	{
+		this.directory = directory;
+		this.documentHash = documentHash;
+	}
+	
+	/**
+	 * Store of the rendered pages of the document.
+	 * 
+	 * @param pdfFile reference document
+	 * @return store or null if there is no DIRECTORY or the document can't be read
+	 */
+	public static PDFRasterStore open(File pdfFile)
+	{
+		if(DIRECTORY == null || pdfFile == null)
+			return null;
+		
+		File directory = new File(DIRECTORY);
+		if(!directory.isDirectory() && !directory.mkdirs())
+		{
+			log.error("Unable to create the raster store " + directory);
+			return null;
+		}
+		
+		try {
+			return new PDFRasterStore(directory, getDocumentHash(pdfFile));
+		} catch (IOException e) {
+			log.error(pdfFile.getName() + ": unable to hash the document for the raster store. Reason: " + e.getMessage(), e);
+			return null;
+		}
+	}
+	
+	/**
+	 * Load the stored page image into an image of the raster pool.
+	 * 
+	 * @param pageNum
+	 * @param width
+	 * @param height
+	 * @param imageType TYPE_INT_ARGB or TYPE_BYTE_GRAY
+	 * @return image or null if the page is not stored
+	 */
+	public BufferedImage load(int pageNum, int width, int height, int imageType)
+	{
+		File file = getFile(pageNum, width, height, imageType);
+		if(!file.isFile())
+			return null;
+		
+		boolean gray = (imageType == BufferedImage.TYPE_BYTE_GRAY);
+		int length = width * height;
+		
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			FileChannel channel = raf.getChannel();
+			if(channel.size() != HEADER_SIZE + (gray ? 1L : 4L) * length)
+				return null;
+			
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buf.order(ByteOrder.nativeOrder());
+			if(buf.getInt() != MAGIC || buf.getInt() != RENDERER_VERSION || buf.getInt() != width 
+					|| buf.getInt() != height || buf.getInt() != imageType)
+				return null;
+			
+			if(gray)
+			{
+				BufferedImage img = RasterPool.leaseGrayImage(width, height);
+				buf.get(PDFVisualiseDifference.getGrayPixels(img), 0, length);
+				return img;
+			}
+			
+			BufferedImage img = RasterPool.leaseImage(width, height);
+			buf.asIntBuffer().get(PDFVisualiseDifference.getPixels(img), 0, length);
+			return img;
+		} catch (IOException e) {
+			log.warn("Unable to load " + file + ". Reason: " + e.getMessage());
+			return null;
+		} finally {
+			close(raf);
+		}
+	}
+	
+	/**
+	 * Store the pixels of the page image.
+	 * 
+	 * @param pageNum
+	 * @param img
+	 * @param imageType TYPE_INT_ARGB or TYPE_BYTE_GRAY
+	 */
+	public void save(int pageNum, BufferedImage img, int imageType)
+	{
+		int width = img.getWidth();
+		int height = img.getHeight();
+		int length = width * height;
+		boolean gray = (imageType == BufferedImage.TYPE_BYTE_GRAY);
+		
+		ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + (gray ? 1 : 4) * length).order(ByteOrder.nativeOrder());
+		buf.putInt(MAGIC).putInt(RENDERER_VERSION).putInt(width).putInt(height).putInt(imageType);
+		if(gray)
+			buf.put(PDFVisualiseDifference.getGrayPixels(img), 0, length);
+		else
+			buf.asIntBuffer().put(PDFVisualiseDifference.getPixels(img), 0, length);
+		buf.rewind();
+		
+		File file = getFile(pageNum, width, height, imageType);
+		File tmpFile = null;
+		RandomAccessFile raf = null;
+		try {
+			tmpFile = File.createTempFile(documentHash, ".tmp", directory);
+			raf = new RandomAccessFile(tmpFile, "rw");
+			FileChannel channel = raf.getChannel();
+			while(buf.hasRemaining())
+				channel.write(buf);
+			raf.close();
+			raf = null;
+			
+			if(tmpFile.renameTo(file))
+				tmpFile = null;
+		} catch (IOException e) {
+			log.warn("Unable to store " + file + ". Reason: " + e.getMessage());
+		} finally {
+			close(raf);
+			if(tmpFile != null)
+				tmpFile.delete();
+		}
+	}
+	
+	private File getFile(int pageNum, int width, int height, int imageType)
+	{
+		String type = (imageType == BufferedImage.TYPE_BYTE_GRAY) ? "gray" : "argb";
+		return new File(directory, documentHash + "_" + pageNum + "_" + width + "x" + height + "_" + type + "_v" + RENDERER_VERSION + ".raster");
+	}
+	
+	/**
+	 * SHA-1 of the file content, every document is hashed once as 
+	 * long as its length and modification time stay the same 
+	 * (e.g. the reference of all candidates in the fan-out mode).
+	 * 
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	private static String getDocumentHash(File file) throws IOException
+	{
+		String key = file.getCanonicalPath() + "|" + file.length() + "|" + file.lastModified();
+		synchronized (documentHashes) {
+			String hash = documentHashes.get(key);
+			if(hash != null)
+				return hash;
+		}
+		
+		String hash = hash(file);
+		synchronized (documentHashes) {
+			documentHashes.put(key, hash);
+		}
+		return hash;
+	}
+	
+	/**
+	 * SHA-1 of the file content as hex string
+	 * 
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	private static String hash(File file) throws IOException
+	{
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e.getMessage());
+		}
+		
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			for (int read; (read = in.read(buffer)) != -1;)
+				md.update(buffer, 0, read);
+		} finally {
+			in.close();
+		}
+		
+		StringBuilder hex = new StringBuilder(40);
+		for (byte b : md.digest())
+			hex.append(Character.forDigit((b >> 4) & 15, 16)).append(Character.forDigit(b & 15, 16));
+		return hex.toString();
+	}
+	
+	private static void close(RandomAccessFile raf)
+	{
+		if(raf == null)
+			return;
+		
+		try {
+			raf.close();
+		} catch (IOException e) {
+			// nothing left to do
+		}
+	}
+}
@@ -0,0 +1,224 @@
+/*
+* PDFRenderCache
+*
+* Copyright (c) 2012, E&E information consultants AG. All rights reserved.
+* Authors:
+*   Peter Jentsch
+*   Nico Hezel
+*
+* This library is free software; you can redistribute it and/or
+* modify it under the terms of the GNU Lesser General Public
+* License as published by the Free Software Foundation; either
+* version 2.1 of the License, or (at your option) any later version.
+*
+* This library is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this library; if not, write to the Free Software
+* Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+* MA 02110-1301 USA
+*/
+package de.ee.hezel;
+
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.sun.pdfview.PDFPage;
+
+import de.ee.hezel.util.RasterPool;
+
+/**
+ * Rendered page images of all compare jobs, addressed by their content.
+ *
+ * Many documents share the same pages (e.g. terms and conditions). 
+ * A page is identified by the digest of its contents and resources, 
+ * its bounding box and rotation and the size, clip and type of the 
+ * image. Identical pages get rendered once per run, all further 
+ * renderings are copies of the cached pixels. 
+ * 
+ * The least recently used images are removed if the cache takes more 
+ * than MAX_MEGABYTES. The cache owns its pixels, the images leased 
+ * by the caller are copies and can be changed or released as usual.
+ *
+ * @author hezeln
+ *
+ */
+public class PDFRenderCache {
+
+	static Logger log = Logger.getLogger(PDFRenderCache.class.getName());
+	
+	// memory of all cached pixels, 0 disables the cache
+	static final int MAX_MEGABYTES = Integer.getInteger(PDFRenderCache.class.getName() + ".MAX_MEGABYTES", 128);
+	
+	private static final long maxBytes = (long) MAX_MEGABYTES * 1024 * 1024;
+	
+	// pixels by key in access order
+	private static final LinkedHashMap<String, CachedImage> images = new LinkedHashMap<String, CachedImage>(64, 0.75f, true);
+	private static long bytes;
+	private static long hits, misses;
+	
+	private PDFRenderCache()
+	{
+	}
+	
+	/**
+	 * Pages need a content digest to be cached.
+	 * 
+	 * @return
+	 */
+	public static boolean isEnabled()
+	{
+		return MAX_MEGABYTES > 0;
+	}
+	
+	/**
+	 * Key of a rendered image of the page.
+	 * 
+	 * @param page
+	 * @param width of the image
+	 * @param height of the image
+	 * @param clip part of the page
+	 * @param imageType
+	 * @return key or null if the page has no content digest
+	 */
+	public static String getKey(PDFPage page, int width, int height, Rectangle2D clip, int imageType)
+	{
+		byte[] digest = page.getContentDigest();
+		if(!isEnabled() || digest == null)
+			return null;
+		
+		StringBuilder key = new StringBuilder(128);
+		for (byte b : digest)
+			key.append(Character.forDigit((b >> 4) & 15, 16)).append(Character.forDigit(b & 15, 16));
+		
+		Rectangle2D bbox = page.getBBox();
+		key.append(';').append(bbox.getX()).append(',').append(bbox.getY()).append(',').append(bbox.getWidth()).append(',').append(bbox.getHeight());
+		key.append(';').append(page.getRotation());
+		key.append(';').append(width).append('x').append(height);
+		if(clip != null)
+			key.append(';').append(clip.getX()).append(',').append(clip.getY()).append(',').append(clip.getWidth()).append(',').append(clip.getHeight());
+		key.append(';').append(imageType);
+		
+		return key.toString();
+	}
+	
+	/**
+	 * Copy of the cached image, leased from the raster pool.
+	 * 
+	 * @param key can be null
+	 * @return copy or null if the image is not cached
+	 */
+	public static BufferedImage get(String key)
+	{
+		if(key == null)
+			return null;
+		
+		CachedImage cached;
+		synchronized (images) {
+			cached = images.get(key);
+			if(cached == null)
+			{
+				misses++;
+				return null;
+			}
+			hits++;
+		}
+		
+		// the cached pixels never change, copy them outside of the lock
+		if(cached.gray != null)
+		{
+			BufferedImage img = RasterPool.leaseGrayImage(cached.width, cached.height);
+			System.arraycopy(cached.gray, 0, PDFVisualiseDifference.getGrayPixels(img), 0, cached.gray.length);
+			return img;
+		}
+		
+		BufferedImage img = RasterPool.leaseImage(cached.width, cached.height);
+		System.arraycopy(cached.pixels, 0, PDFVisualiseDifference.getPixels(img), 0, cached.pixels.length);
+		return img;
+	}
+	
+	/**
+	 * Cache a copy of the rendered image.
+	 * 
+	 * @param key can be null
+	 * @param img TYPE_INT_ARGB or TYPE_BYTE_GRAY image
+	 */
+	public static void put(String key, BufferedImage img)
+	{
+		if(key == null)
+			return;
+		
+		int length = img.getWidth() * img.getHeight();
+		byte[] gray = PDFVisualiseDifference.getGrayPixels(img);
+		long size = (gray != null) ? length : 4L * length;
+		if(size > maxBytes)
+			return;
+		
+		CachedImage cached = new CachedImage(img.getWidth(), img.getHeight());
+		if(gray != null)
+		{
+			cached.gray = new byte[length];
+			System.arraycopy(gray, 0, cached.gray, 0, length);
+		}
+		else
+		{
+			cached.pixels = new int[length];
+			System.arraycopy(PDFVisualiseDifference.getPixels(img), 0, cached.pixels, 0, length);
+		}
+		
+		synchronized (images) {
+			CachedImage previous = images.put(key, cached);
+			if(previous != null)
+				bytes -= previous.getSize();
+			bytes += size;
+			
+			// remove the least recently used images
+			Iterator<Map.Entry<String, CachedImage>> it = images.entrySet().iterator();
+			while(bytes > maxBytes && it.hasNext())
+			{
+				bytes -= it.next().getValue().getSize();
+				it.remove();
+			}
+		}
+	}
+	
+	/**
+	 * log the hit rate of the cache
+	 */
+	public static void logStatistics()
+	{
+		synchronized (images) {
+			if(hits + misses > 0)
+				log.info("render cache: " + hits + " of " + (hits + misses) + " page images reused, " + (bytes / 1024 / 1024) + "MB cached");
+		}
+	}
+	
+	/**
+	 * pixels of a rendered image
+	 */
+	private static class CachedImage
+	{
+		final int width, height;
+		int[] pixels;
+		byte[] gray;
+		
+		CachedImage(int width, int height)
+		{
+			this.width = width;
+			this.height = height;
+		}
+		
+		long getSize()
+		{
+			return (gray != null) ? gray.length : 4L * pixels.length;
+		}
+	}
+}
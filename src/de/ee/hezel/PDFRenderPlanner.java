@@ -0,0 +1,180 @@
+/*
+* PDFRenderPlanner
+*
+* Copyright (c) 2012, E&E information consultants AG. All rights reserved.
+* Authors:
+*   Peter Jentsch
+*   Nico Hezel
+*
+* This library is free software; you can redistribute it and/or
+* modify it under the terms of the GNU Lesser General Public
+* License as published by the Free Software Foundation; either
+* version 2.1 of the License, or (at your option) any later version.
+*
+* This library is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this library; if not, write to the Free Software
+* Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+* MA 02110-1301 USA
+*/
+package de.ee.hezel;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plans which parts of a page image need to be rendered.
+ *
+ * The areas of interest (e.g. the boxes of the elements) are collected
+ * in a grid of cells. All marked cells get merged into a few rectangular
+ * tiles, which can be rendered with a clip. Every tile renders all
+ * commands of the page again, therefore the whole page is rendered
+ * if there are too many tiles or they cover most of the page.
+ *
+ * All coordinates are pixels of the page image.
+ *
+ * @author hezeln
+ *
+ */
+public class PDFRenderPlanner {
+
+	// width and height of a cell in pixel
+	static final int CELL_SIZE = Integer.getInteger(PDFRenderPlanner.class.getName() + ".CELL_SIZE", 64);
+
+	// more tiles would be slower than rendering the entire page
+	static final int MAX_TILES = Integer.getInteger(PDFRenderPlanner.class.getName() + ".MAX_TILES", 16);
+
+	// percentage of the page, beyond which the entire page gets rendered
+	static final int MAX_COVERAGE = Integer.getInteger(PDFRenderPlanner.class.getName() + ".MAX_COVERAGE", 60);
+
+	private final int pageWidth;
+	private final int pageHeight;
+	private final int cellSize;
+	private final int columns;
+	private final int rows;
+	private final boolean[] cells;
+
+	// an area reaches beyond the page
+	private boolean entirePage;
+
+	public PDFRenderPlanner(int pageWidth, int pageHeight)
+	{
+		this(pageWidth, pageHeight, CELL_SIZE);
+	}
+
+	public PDFRenderPlanner(int pageWidth, int pageHeight, int cellSize)
+	{
+		this.pageWidth = pageWidth;
+		this.pageHeight = pageHeight;
+		this.cellSize = cellSize;
+		this.columns = (pageWidth + cellSize - 1) / cellSize;
+		this.rows = (pageHeight + cellSize - 1) / cellSize;
+		this.cells = new boolean[columns * rows];
+	}
+
+	/**
+	 * Mark an area of the page, which needs to be rendered.
+	 * Areas beyond the right or bottom page boundary
+	 * need the entire page.
+	 *
+	 * @param x
+	 * @param y
+	 * @param width
+	 * @param height
+	 */
+	public void add(int x, int y, int width, int height)
+	{
+		if(width <= 0 || height <= 0)
+			return;
+
+		if(x + width > pageWidth || y + height > pageHeight)
+		{
+			entirePage = true;
+			return;
+		}
+
+		int minColumn = Math.max(0, x) / cellSize;
+		int maxColumn = (x + width - 1) / cellSize;
+		int minRow = Math.max(0, y) / cellSize;
+		int maxRow = (y + height - 1) / cellSize;
+
+		for (int row = minRow; row <= maxRow; row++)
+			for (int column = minColumn; column <= maxColumn; column++)
+				cells[row * columns + column] = true;
+	}
+
+	/**
+	 * Merge all marked cells into tiles. Neighbouring cells of a row
+	 * become one tile, which grows downwards as long as the next rows
+	 * have the same cells marked.
+	 *
+	 * @return tiles to render or null if the entire page should be rendered
+	 */
+	public List<Rectangle> getTiles()
+	{
+		if(entirePage)
+			return null;
+
+		List<Rectangle> tiles = new ArrayList<Rectangle>();
+		long area = 0;
+
+		// tiles ending at the previous row, which might grow further
+		List<Rectangle> open = new ArrayList<Rectangle>();
+
+		for (int row = 0; row < rows; row++)
+		{
+			int tileY = row * cellSize;
+			int tileHeight = Math.min(tileY + cellSize, pageHeight) - tileY;
+			List<Rectangle> next = new ArrayList<Rectangle>();
+
+			int column = 0;
+			while(column < columns)
+			{
+				if(!cells[row * columns + column])
+				{
+					column++;
+					continue;
+				}
+
+				int start = column;
+				while(column < columns && cells[row * columns + column])
+					column++;
+
+				int tileX = start * cellSize;
+				int tileWidth = Math.min(column * cellSize, pageWidth) - tileX;
+				area += (long) tileWidth * tileHeight;
+
+				// same cells as in the row above
+				Rectangle tile = null;
+				for (Rectangle openTile : open)
+				{
+					if(openTile.x == tileX && openTile.width == tileWidth)
+					{
+						tile = openTile;
+						tile.height += tileHeight;
+						break;
+					}
+				}
+
+				if(tile == null)
+				{
+					tile = new Rectangle(tileX, tileY, tileWidth, tileHeight);
+					tiles.add(tile);
+				}
+				next.add(tile);
+			}
+
+			open = next;
+		}
+
+		if(tiles.size() > MAX_TILES || area * 100 > (long) pageWidth * pageHeight * MAX_COVERAGE)
+			return null;
+
+		return tiles;
+	}
+}
@@ -0,0 +1,375 @@
+/*
+* PDFRevisionAnalyser
+*
+* Copyright (c) 2012, E&E information consultants AG. All rights reserved.
+* Authors:
+*   Peter Jentsch
+*   Nico Hezel
+*
+* This library is free software; you can redistribute it and/or
+* modify it under the terms of the GNU Lesser General Public
+* License as published by the Free Software Foundation; either
+* version 2.1 of the License, or (at your option) any later version.
+*
+* This library is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this library; if not, write to the Free Software
+* Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+* MA 02110-1301 USA
+*/
+package de.ee.hezel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import com.sun.pdfview.PDFFile;
+import com.sun.pdfview.PDFObject;
+
+import de.ee.hezel.model.PDFInfoHolder;
+import de.ee.hezel.model.PDFInfoHolder.DifferenceType;
+
+/**
+ * Finds the pages which are unchanged by incremental updates.
+ *
+ * Often the new pdf is the reference pdf plus an incremental update
+ * (e.g. a stamped signature or a filled form), or both share the same
+ * original revision. All objects of the shared revision are byte-identical
+ * in both files. Only objects redefined by the appended revisions can
+ * differ, and only pages referencing one of them need to be compared.
+ *
+ * @author hezeln
+ *
+ */
+public class PDFRevisionAnalyser extends AbstractPDFCompare {
+
+	static Logger log = Logger.getLogger(PDFRevisionAnalyser.class.getName());
+
+	static final boolean ENABLED = Boolean.parseBoolean(System.getProperty(PDFRevisionAnalyser.class.getName() + ".ENABLED", "true"));
+
+	private static final byte[] EOF_MARKER = { '%', '%', 'E', 'O', 'F' };
+	private static final byte[] STARTXREF = { 's', 't', 'a', 'r', 't', 'x', 'r', 'e', 'f' };
+
+	/**
+	 * Mark all pages of the pdf info holder, which are
+	 * not affected by the incremental updates of both files.
+	 *
+	 * @param pdfInfoHolder with loaded pdf files
+	 */
+	public void analyse(PDFInfoHolder pdfInfoHolder)
+	{
+		if(!ENABLED || pdfInfoHolder.getDifferent() == DifferenceType.MISSINGDOCUMENT)
+			return;
+
+		PDFFile pdf1 = pdfInfoHolder.getPDF1();
+		PDFFile pdf2 = pdfInfoHolder.getPDF2();
+		if(pdf1 == null || pdf2 == null || pdf1.getNumPages() != pdf2.getNumPages())
+			return;
+
+		try {
+			// both files are identical up to this offset
+			ByteBuffer buf1 = pdf1.getFileBuffer();
+			ByteBuffer buf2 = pdf2.getFileBuffer();
+			int prefix = commonPrefixLength(buf1, buf2, Math.min(buf1.capacity(), buf2.capacity()));
+
+			// end of the last revision both files have in common
+			int revisionEnd = findSharedRevisionEnd(buf1, prefix, pdf1, pdf2);
+			if(revisionEnd <= 0)
+				return;
+
+			// objects (re-)defined by the appended revisions
+			Set<Integer> changedObjects = new HashSet<Integer>(pdf1.getObjectsDefinedAfter(revisionEnd));
+			changedObjects.addAll(pdf2.getObjectsDefinedAfter(revisionEnd));
+
+			// the files start to differ inside of these objects
+			changedObjects.addAll(pdf1.getObjectsContaining(prefix));
+			changedObjects.addAll(pdf2.getObjectsContaining(prefix));
+
+			// a different catalog (optional content, forms, names ...) affects all pages
+			if(getObjNum(pdf1.getRoot()) != getObjNum(pdf2.getRoot()) 
+					|| catalogReferencesAny(pdf1, changedObjects) || catalogReferencesAny(pdf2, changedObjects))
+			{
+				log.debug(pdfInfoHolder.getFilename()+": the incremental updates change the document catalog");
+				return;
+			}
+
+			Set<Integer> unchangedPages = new HashSet<Integer>();
+			int numPgs = pdf1.getNumPages();
+			for (int i = 1; i <= numPgs; i++)
+			{
+				if(!referencesAny(pdf1, i, changedObjects) && !referencesAny(pdf2, i, changedObjects))
+					unchangedPages.add(i-1);
+			}
+
+			pdfInfoHolder.setUnchangedPages(unchangedPages);
+			log.info(pdfInfoHolder.getFilename()+": "+unchangedPages.size()+" of "+numPgs+" pages are unchanged by incremental updates");
+
+		} catch (Exception e) {
+			// compare all pages
+			log.debug(pdfInfoHolder.getFilename()+": could not analyse the revisions. Reason: "+e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Find the end of the last revision (%%EOF marker), which
+	 * is part of the byte-identical prefix of both files.
+	 *
+	 * A marker only ends a revision if it follows "startxref n" and
+	 * both files read a cross reference section at offset n. Other
+	 * markers are part of the data of an object (e.g. an embedded pdf).
+	 *
+	 * @param buf content of the 1st file, read with absolute positions only
+	 * @param prefix length of the byte-identical prefix of both files
+	 * @param pdf1
+	 * @param pdf2
+	 * @return file offset or -1 if the files share no revision
+	 */
+	static int findSharedRevisionEnd(ByteBuffer buf, int prefix, PDFFile pdf1, PDFFile pdf2)
+	{
+		// last revision inside the common prefix
+		int limit = prefix;
+		int eof;
+		while((eof = lastIndexOf(buf, EOF_MARKER, limit)) >= 0)
+		{
+			int xref = readStartXref(buf, eof);
+			if(xref >= 0 && xref < eof && pdf1.isXrefOffset(xref) && pdf2.isXrefOffset(xref))
+			{
+				// the revision includes the line break after the marker
+				int end = eof + EOF_MARKER.length;
+				while(end < prefix && (buf.get(end) == '\r' || buf.get(end) == '\n'))
+					end++;
+
+				return end;
+			}
+
+			// search in front of this marker
+			limit = eof + EOF_MARKER.length - 1;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Read the offset n of "startxref n" in front of a %%EOF marker.
+	 *
+	 * @param buf
+	 * @param eof position of the marker
+	 * @return the offset or -1 if the marker does not follow a startxref
+	 */
+	private static int readStartXref(ByteBuffer buf, int eof)
+	{
+		int pos = skipWhitespaceBackwards(buf, eof - 1);
+
+		// the digits of the offset
+		long xref = 0, factor = 1;
+		int digits = 0;
+		while(pos >= 0 && digits < 10 && buf.get(pos) >= '0' && buf.get(pos) <= '9')
+		{
+			xref += (buf.get(pos) - '0') * factor;
+			factor *= 10;
+			digits++;
+			pos--;
+		}
+
+		int keywordEnd = skipWhitespaceBackwards(buf, pos);
+		if(digits == 0 || keywordEnd == pos || xref > Integer.MAX_VALUE)
+			return -1;
+
+		int keywordStart = keywordEnd - STARTXREF.length + 1;
+		if(keywordStart < 0)
+			return -1;
+
+		for (int i = 0; i < STARTXREF.length; i++)
+		{
+			if(buf.get(keywordStart + i) != STARTXREF[i])
+				return -1;
+		}
+
+		return (int)xref;
+	}
+
+	private static int skipWhitespaceBackwards(ByteBuffer buf, int pos)
+	{
+		while(pos >= 0 && isWhitespace(buf.get(pos)))
+			pos--;
+
+		return pos;
+	}
+
+	private static boolean isWhitespace(byte b)
+	{
+		return b == ' ' || b == '\r' || b == '\n' || b == '\t' || b == '\f' || b == 0;
+	}
+
+	private static int commonPrefixLength(ByteBuffer buf1, ByteBuffer buf2, int length)
+	{
+		int pos = 0;
+
+		// compare 8 bytes at once
+		while(pos + 8 <= length && buf1.getLong(pos) == buf2.getLong(pos))
+			pos += 8;
+
+		while(pos < length && buf1.get(pos) == buf2.get(pos))
+			pos++;
+
+		return pos;
+	}
+
+	private static int lastIndexOf(ByteBuffer buf, byte[] pattern, int limit)
+	{
+		for (int i = limit - pattern.length; i >= 0; i--)
+		{
+			int j = 0;
+			while(j < pattern.length && buf.get(i+j) == pattern[j])
+				j++;
+
+			if(j == pattern.length)
+				return i;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Does the page refer to one of the given objects, directly
+	 * or through other objects (fonts, images, annotations ...).
+	 * Inherited resources of the page tree count as well.
+	 *
+	 * @param pdf
+	 * @param pageNum starting with 1
+	 * @param objNums
+	 * @return
+	 * @throws IOException
+	 */
+	private boolean referencesAny(PDFFile pdf, int pageNum, Set<Integer> objNums) throws IOException
+	{
+		if(objNums.isEmpty())
+			return false;
+
+		PDFObject pageObj = pdf.getPageObject(pageNum);
+		if(pageObj == null)
+			return true;
+
+		Set<Integer> visited = new HashSet<Integer>();
+		LinkedList<PDFObject> stack = new LinkedList<PDFObject>();
+		stack.add(pageObj);
+
+		// the page tree above the page
+		PDFObject parent = pageObj.getDictRef("Parent");
+		while(parent != null)
+		{
+			if(parent.isIndirect())
+			{
+				if(objNums.contains(parent.getReferencedObjNum()))
+					return true;
+				
+				// broken page tree
+				if(!visited.add(parent.getReferencedObjNum()))
+					break;
+			}
+
+			PDFObject resources = parent.getDictRef("Resources");
+			if(resources != null)
+				stack.add(resources);
+
+			parent = parent.getDictRef("Parent");
+		}
+
+		// every object reachable from the page, without going up the trees
+		return reachesAny(stack, objNums, false);
+	}
+
+	/**
+	 * Does the document catalog refer to one of the given objects, directly
+	 * or through its entries (optional content, forms, names ...).
+	 * The pages and the page tree are not part of the search.
+	 *
+	 * @param pdf
+	 * @param objNums
+	 * @return
+	 * @throws IOException
+	 */
+	private boolean catalogReferencesAny(PDFFile pdf, Set<Integer> objNums) throws IOException
+	{
+		if(objNums.isEmpty())
+			return false;
+
+		LinkedList<PDFObject> stack = new LinkedList<PDFObject>();
+		stack.add(pdf.getRoot());
+		return reachesAny(stack, objNums, true);
+	}
+
+	/**
+	 * Search the objects on the stack and every object reachable
+	 * from them, without going up the trees (Parent entries).
+	 *
+	 * @param stack objects to start with
+	 * @param objNums
+	 * @param skipPages do not search the pages and page tree nodes
+	 * @return
+	 * @throws IOException
+	 */
+	private static boolean reachesAny(LinkedList<PDFObject> stack, Set<Integer> objNums, boolean skipPages) throws IOException
+	{
+		Set<Integer> visited = new HashSet<Integer>();
+		while(!stack.isEmpty())
+		{
+			PDFObject obj = stack.removeLast();
+
+			int objNum = obj.getObjNum();
+			if(obj.isIndirect())
+			{
+				objNum = obj.getReferencedObjNum();
+				if(!visited.add(objNum))
+					continue;
+
+				obj = obj.dereference();
+			}
+
+			if(skipPages && isPageTreeNode(obj))
+				continue;
+			if(objNum >= 0 && objNums.contains(objNum))
+				return true;
+
+			int type = obj.getType();
+			if(type == PDFObject.ARRAY)
+			{
+				for (PDFObject item : obj.getArray())
+					stack.add(item);
+			}
+			else if(type == PDFObject.DICTIONARY || type == PDFObject.STREAM)
+			{
+				for (Map.Entry<String, PDFObject> entry : obj.getDictionary().entrySet())
+				{
+					if(!"Parent".equals(entry.getKey()))
+						stack.add(entry.getValue());
+				}
+			}
+		}
+
+		return false;
+	}
+
+	private static boolean isPageTreeNode(PDFObject obj) throws IOException
+	{
+		if(obj.getType() != PDFObject.DICTIONARY)
+			return false;
+
+		PDFObject type = obj.getDictRef("Type");
+		return type != null && ("Page".equals(type.getStringValue()) || "Pages".equals(type.getStringValue()));
+	}
+
+	private static int getObjNum(PDFObject obj)
+	{
+		return obj.isIndirect() ? obj.getReferencedObjNum() : obj.getObjNum();
+	}
+}
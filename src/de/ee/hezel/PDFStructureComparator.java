@@ -25,14 +25,24 @@ package de.ee.hezel;
 
 import java.awt.geom.Rectangle2D;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RecursiveTask;
 
 import de.ee.hezel.logger.ICompareLogger;
 import de.ee.hezel.model.PDFHolder;
 import de.ee.hezel.model.PDFInfoHolder;
+import de.ee.hezel.model.PDFLineHolder;
 import de.ee.hezel.model.PDFPageHolder;
 import de.ee.hezel.model.PDFInfoHolder.DifferenceType;
 import de.ee.hezel.model.pdfelemente.PDFEntryHolder;
 import de.ee.hezel.model.pdfelemente.PDFTextHolder;
+import de.ee.hezel.util.SharedPool;
+import de.ee.hezel.util.WordDictionary;
 
 /**
  * Compare the pdf structures and find differences
@@ -48,6 +58,9 @@ import de.ee.hezel.model.pdfelemente.PDFTextHolder;
  */
 public class PDFStructureComparator extends AbstractPDFCompare {
 
+	// positions are compared in steps of 1/10 pt when looking for identical lines
+	static final double LINE_POSITION_QUANTUM = 0.1;
+	
 	private final boolean isSimpleComparison;
 	private PDFInfoHolder pdfInfoHolder;
 	
@@ -102,47 +115,209 @@ public class PDFStructureComparator extends AbstractPDFCompare {
 	/**
 	 * compare the structure of the given pdf documents
 	 * 
+	 * Every page gets compared in its own task on the shared fork/join pool.
+	 * The tasks don't touch the difference logger, their results get merged 
+	 * in page order afterwards. This way the output stays the same, no matter 
+	 * in which order the pages are finished.
+	 * 
 	 * @param pdfHolder1
 	 * @param pdfHolder2
 	 */
 	private void comparePDFHolder(PDFHolder pdfHolder1, PDFHolder pdfHolder2)
 	{
-		for (PDFPageHolder pdfPageHolder1 : pdfHolder1.getPageHolders()) {
-			
-			// get the same page from the other pdf document
-			PDFPageHolder pdfPageHolder2 = pdfHolder2.getPageHolder(pdfPageHolder1.getPageNumber());
-			if (pdfPageHolder2 == null) {
-			    diff.log(pdfInfoHolder.getFilename()+": page " + pdfPageHolder1.getPageNumber() + " missing in other pdf");
-			    return;
+		// sort the pages by their number
+		List<PDFPageHolder> pdfPageHolders = new ArrayList<PDFPageHolder>(pdfHolder1.getPageHolders());
+		Collections.sort(pdfPageHolders, new Comparator<PDFPageHolder>() {
+			@Override
+			public int compare(PDFPageHolder p1, PDFPageHolder p2) {
+				return (p1.getPageNumber() < p2.getPageNumber()) ? -1 : ((p1.getPageNumber() == p2.getPageNumber()) ? 0 : 1);
 			}
+		});
+		
+		// a single page is not worth the pool
+		List<PageCompareTask> tasks = new ArrayList<PageCompareTask>(pdfPageHolders.size());
+		for (PDFPageHolder pdfPageHolder1 : pdfPageHolders) {
+			PageCompareTask task = new PageCompareTask(pdfPageHolder1, pdfHolder2.getPageHolder(pdfPageHolder1.getPageNumber()));
+			if(pdfPageHolders.size() > 1)
+				SharedPool.get().execute(task);
+			tasks.add(task);
+		}
+		
+		// merge the results in page order
+		for (PageCompareTask task : tasks) {
+			PageCompareResult result = (pdfPageHolders.size() > 1) ? task.join() : task.invoke();
 			
-			// run thru all structure elements for this page
-			for (PDFEntryHolder pdfEntryHolder1 : pdfPageHolder1.getElements()) {
-				
-				// try to find the same element at the same page of the other pdf 
-				PDFEntryHolder pdfEntryHolder2 = findEntryHolder(pdfEntryHolder1, pdfPageHolder2);
-				
-				// no valid element found, assume difference
-				if(pdfEntryHolder2 == null)
+			for (PDFEntryHolder pdfEntryHolder : result.differentElements)
+				pdfEntryHolder.setDifferent(true);
+			
+			for (String message : result.messages)
+				diff.log(message);
+		}
+	}
+	
+	/**
+	 * compare the structure of a single page
+	 * 
+	 * @param pdfPageHolder1
+	 * @param pdfPageHolder2 same page of the other pdf, or null if missing
+	 * @return
+	 */
+	private PageCompareResult comparePDFPageHolder(PDFPageHolder pdfPageHolder1, PDFPageHolder pdfPageHolder2)
+	{
+		PageCompareResult result = new PageCompareResult();
+		
+		// missing the counter part
+		if (pdfPageHolder2 == null) {
+			result.messages.add(pdfInfoHolder.getFilename()+": page " + pdfPageHolder1.getPageNumber() + " missing in other pdf");
+			return result;
+		}
+		
+		// elements of unchanged regions and words of lines which exist unchanged 
+		// on the other page don't need to be searched element by element
+		Set<PDFEntryHolder> matchedElements = pdfPageHolder1.getRegionTree().findUnchangedElements(pdfPageHolder2.getRegionTree());
+		matchedElements.addAll(findIdenticalLineWords(pdfPageHolder1, pdfPageHolder2));
+		
+		// run thru all structure elements for this page
+		DecimalFormat df = new DecimalFormat( "####.###" );
+		for (PDFEntryHolder pdfEntryHolder1 : pdfPageHolder1.getElements()) {
+			
+			if(matchedElements.contains(pdfEntryHolder1))
+				continue;
+			
+			// try to find the same element at the same page of the other pdf 
+			PDFEntryHolder pdfEntryHolder2 = findEntryHolder(pdfEntryHolder1, pdfPageHolder2);
+			
+			// no valid element found, assume difference
+			if(pdfEntryHolder2 == null)
+			{
+				result.differentElements.add(pdfEntryHolder1);
+				if(pdfEntryHolder1 instanceof PDFTextHolder)
+				{
+					PDFTextHolder th = (PDFTextHolder)pdfEntryHolder1;
+					result.messages.add(pdfInfoHolder.getFilename()+": Could not find smiliar text \""+th.getText()+"\" on page " 
+							+ (pdfPageHolder1.getPageNumber()+1) + " at position " + df.format(th.getX())+" | " + df.format(th.getY()) 
+							+ " with size " + df.format(th.getWidth()) + " width and " + df.format(th.getHeight()) + " height");
+				}
+				else
 				{
-					pdfEntryHolder1.setDifferent(true);
-					DecimalFormat df = new DecimalFormat( "####.###" );
-					if(pdfEntryHolder1 instanceof PDFTextHolder)
-					{
-						PDFTextHolder th = (PDFTextHolder)pdfEntryHolder1;
-						diff.log(pdfInfoHolder.getFilename()+": Could not find smiliar text \""+th.getText()+"\" on page " 
-								+ (pdfPageHolder1.getPageNumber()+1) + " at position " + df.format(th.getX())+" | " + df.format(th.getY()) 
-								+ " with size " + df.format(th.getWidth()) + " width and " + df.format(th.getHeight()) + " height");
-					}
-					else
-					{
-						diff.log(pdfInfoHolder.getFilename()+": Could not find smiliar image on page " + (pdfPageHolder1.getPageNumber()+1) 
-								+ " at position " + df.format(pdfEntryHolder1.getX())+" | " + df.format(pdfEntryHolder1.getY()) + " with size " 
-								+ df.format(pdfEntryHolder1.getWidth()) + " width and " + df.format(pdfEntryHolder1.getHeight()) + " height");
-					}
+					result.messages.add(pdfInfoHolder.getFilename()+": Could not find smiliar image on page " + (pdfPageHolder1.getPageNumber()+1) 
+							+ " at position " + df.format(pdfEntryHolder1.getX())+" | " + df.format(pdfEntryHolder1.getY()) + " with size " 
+							+ df.format(pdfEntryHolder1.getWidth()) + " width and " + df.format(pdfEntryHolder1.getHeight()) + " height");
 				}
 			}
 		}
+		
+		return result;
+	}
+	
+	/**
+	 * differences found on a single page
+	 */
+	private static class PageCompareResult
+	{
+		final List<PDFEntryHolder> differentElements = new ArrayList<PDFEntryHolder>();
+		final List<String> messages = new ArrayList<String>();
+	}
+	
+	/**
+	 * compares a single page on the fork/join pool
+	 */
+	private class PageCompareTask extends RecursiveTask<PageCompareResult>
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private final PDFPageHolder pdfPageHolder1;
+		private final PDFPageHolder pdfPageHolder2;
+		
+		PageCompareTask(PDFPageHolder pdfPageHolder1, PDFPageHolder pdfPageHolder2)
+		{
+			this.pdfPageHolder1 = pdfPageHolder1;
+			this.pdfPageHolder2 = pdfPageHolder2;
+		}
+
+		@Override
+		protected PageCompareResult compute() {
+			return comparePDFPageHolder(pdfPageHolder1, pdfPageHolder2);
+		}
+	}
+	
+	/**
+	 * Prefilter for the element search. Most lines of a changed document
+	 * are unchanged. Every line gets a hash key of its normalised text and
+	 * quantised word positions. The words of a line whose key also exists on
+	 * the other page have an identical counterpart there, which findEntryHolder
+	 * would accept anyway. 
+	 * 
+	 * Lines with broken text elements (height <= 1) are never prefiltered,
+	 * they need the repair logic of the full search.
+	 * 
+	 * @param pdfPageHolder1
+	 * @param pdfPageHolder2
+	 * @return words of pdfPageHolder1 which are already matched
+	 */
+	private Set<PDFEntryHolder> findIdenticalLineWords(PDFPageHolder pdfPageHolder1, PDFPageHolder pdfPageHolder2)
+	{
+		Set<PDFEntryHolder> matchedWords = new HashSet<PDFEntryHolder>();
+		
+		// hash all lines of the other page
+		Set<String> lineKeys = new HashSet<String>();
+		for (PDFLineHolder pdfLineHolder : pdfPageHolder2.getLines()) {
+			String key = lineKey(pdfLineHolder, pdfPageHolder2);
+			if(key != null)
+				lineKeys.add(key);
+		}
+		
+		if(lineKeys.isEmpty())
+			return matchedWords;
+		
+		// pair identical lines
+		for (PDFLineHolder pdfLineHolder : pdfPageHolder1.getLines()) {
+			String key = lineKey(pdfLineHolder, pdfPageHolder2);
+			if(key != null && lineKeys.contains(key))
+				matchedWords.addAll(pdfLineHolder.getWords());
+		}
+		
+		return matchedWords;
+	}
+	
+	/**
+	 * Key of a line: the case folded text of every word together with its
+	 * quantised vertical position and size. In STRUCTURAL mode the 
+	 * horizontal position and size are part of the key as well. Both modes
+	 * include the position relative to the page borders.
+	 * 
+	 * @param pdfLineHolder
+	 * @param pdfPageHolder page used for the border check (like findEntryHolder)
+	 * @return key or null if the line can not be prefiltered
+	 */
+	private String lineKey(PDFLineHolder pdfLineHolder, PDFPageHolder pdfPageHolder)
+	{
+		StringBuilder key = new StringBuilder();
+		for (PDFTextHolder word : pdfLineHolder.getWords()) {
+			
+			// broken or empty text elements need the full search
+			if(word.getHeight() <= 1 || word.getWidth() <= 0)
+				return null;
+			
+			// same folding as String.equalsIgnoreCase
+			if(word.getTextId() != WordDictionary.NO_ID)
+				key.append('#').append(word.getTextId());
+			else
+				key.append('"').append(WordDictionary.fold(word.getText()));
+			
+			key.append('\u0000').append(quantise(word.getY())).append(':').append(quantise(word.getHeight()));
+			key.append(':').append(horziontalPositionFromElementInPage(word, pdfPageHolder));
+			if(!isSimpleComparison)
+				key.append(':').append(quantise(word.getX())).append(':').append(quantise(word.getWidth()));
+			key.append('\u0000');
+		}
+		
+		return key.toString();
+	}
+	
+	private static long quantise(double value)
+	{
+		return Math.round(value / LINE_POSITION_QUANTUM);
 	}
 	
 	/**
@@ -172,20 +347,15 @@ public class PDFStructureComparator extends AbstractPDFCompare {
 			if(pdfEntryHolderSearch.getClass() != pdfEntryHolder.getClass())
 				continue;
 			
+			// is the text the same, otherwise there is no coverage at all
+			if(pdfEntryHolderSearch instanceof PDFTextHolder && !isSameText((PDFTextHolder)pdfEntryHolderSearch, (PDFTextHolder)pdfEntryHolder))
+				continue;
+			
 			// check if one of the elements is broken
 			boolean isMalformed = isMalformedTextHolder(pdfEntryHolderSearch, pdfEntryHolder);
 
 			// how much does the elements cover each other
 			float areaCoverage = calcAreaCoverage(pdfEntryHolderSearch, pdfEntryHolder, isMalformed);
-			if(pdfEntryHolderSearch instanceof PDFTextHolder)
-			{
-				String searchText = ((PDFTextHolder)pdfEntryHolderSearch).getText();
-				String text = ((PDFTextHolder)pdfEntryHolder).getText();
-				
-				// is the text the same
-				if(!searchText.equalsIgnoreCase(text))
-					areaCoverage = 0.0f;
-			}	
 			
 			// check if the element is cut by the page borders
 			if(horziontalPositionFromElementInPage(pdfEntryHolder, pdfPageHolder) !=
@@ -228,6 +398,22 @@ public class PDFStructureComparator extends AbstractPDFCompare {
 		return 0;
 	}
 	
+	/**
+	 * Compare the text of both elements, ignoring the case.
+	 * Words from the dictionary are compared by their id.
+	 * 
+	 * @param textHolder1
+	 * @param textHolder2
+	 * @return
+	 */
+	private boolean isSameText(PDFTextHolder textHolder1, PDFTextHolder textHolder2)
+	{
+		if(textHolder1.getTextId() != WordDictionary.NO_ID && textHolder2.getTextId() != WordDictionary.NO_ID)
+			return textHolder1.getTextId() == textHolder2.getTextId();
+		
+		return textHolder1.getText().equalsIgnoreCase(textHolder2.getText());
+	}
+	
 	/**
 	 * Text element are sometimes broken. There height is 0.
 	 * If the vertical position and the text is the same to the element on the other pdf
@@ -240,7 +426,7 @@ public class PDFStructureComparator extends AbstractPDFCompare {
 	private boolean isMalformedTextHolder(PDFEntryHolder entryHolder1, PDFEntryHolder entryHolder2) {
 		if (entryHolder1 instanceof PDFTextHolder) {
 			// if the text is the same, it might be the same element
-			if (!((PDFTextHolder) entryHolder1).getText().equalsIgnoreCase(((PDFTextHolder) entryHolder2).getText()))
+			if (!isSameText((PDFTextHolder) entryHolder1, (PDFTextHolder) entryHolder2))
 				return false;
 
 			if ((entryHolder1.getHeight() <= 1 && entryHolder2.getHeight() > 1)
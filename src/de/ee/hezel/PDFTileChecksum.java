@@ -0,0 +1,158 @@
+/*
+* PDFTileChecksum
+*
+* Copyright (c) 2012, E&E information consultants AG. All rights reserved.
+* Authors:
+*   Peter Jentsch
+*   Nico Hezel
+*
+* This library is free software; you can redistribute it and/or
+* modify it under the terms of the GNU Lesser General Public
+* License as published by the Free Software Foundation; either
+* version 2.1 of the License, or (at your option) any later version.
+*
+* This library is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this library; if not, write to the Free Software
+* Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+* MA 02110-1301 USA
+*/
+package de.ee.hezel;
+
+/**
+ * 64bit checksums of the square tiles of a page image.
+ *
+ * Tiles with the same checksum in both page images are identical and
+ * don't need to be compared pixel by pixel. The image gets read row
+ * by row, which is as fast as the memory allows.
+ *
+ * @author hezeln
+ *
+ */
+public class PDFTileChecksum {
+
+	// width and height of a tile in pixel
+	static final int TILE_SIZE = Integer.getInteger(PDFTileChecksum.class.getName() + ".TILE_SIZE", 32);
+
+	private final int width;
+	private final int height;
+	private final int columns;
+	private final int rows;
+	private final long[] checksums;
+
+	public PDFTileChecksum(int[] pixels, int width, int height)
+	{
+		this(width, height);
+
+		for (int y = 0, pos = 0; y < height; y++)
+		{
+			int tile = (y / TILE_SIZE) * columns;
+			for (int x = 0; x < width; tile++)
+			{
+				// the part of the row inside of the tile
+				long h = checksums[tile];
+				for (int end = Math.min(x + TILE_SIZE, width); x < end; x++, pos++)
+					h = (h ^ pixels[pos]) * 0x9E3779B97F4A7C15L;
+				checksums[tile] = h;
+			}
+		}
+	}
+
+	/**
+	 * checksums of the gray values of a page image
+	 *
+	 * @param grayPixels
+	 * @param width
+	 * @param height
+	 */
+	public PDFTileChecksum(byte[] grayPixels, int width, int height)
+	{
+		this(width, height);
+
+		for (int y = 0, pos = 0; y < height; y++)
+		{
+			int tile = (y / TILE_SIZE) * columns;
+			for (int x = 0; x < width; tile++)
+			{
+				long h = checksums[tile];
+				for (int end = Math.min(x + TILE_SIZE, width); x < end; x++, pos++)
+					h = (h ^ grayPixels[pos]) * 0x9E3779B97F4A7C15L;
+				checksums[tile] = h;
+			}
+		}
+	}
+
+	private PDFTileChecksum(int width, int height)
+	{
+		this.width = width;
+		this.height = height;
+		this.columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+		this.rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+		this.checksums = new long[columns * rows];
+	}
+
+	/**
+	 * Compare the checksums with the ones of the other page image.
+	 *
+	 * @param other checksums of an image with the same size
+	 * @return for every tile (row by row) if it is different or null if the images have different sizes
+	 */
+	public boolean[] findDifferentTiles(PDFTileChecksum other)
+	{
+		if(width != other.width || height != other.height)
+			return null;
+
+		boolean[] different = new boolean[checksums.length];
+		for (int i = 0; i < checksums.length; i++)
+			different[i] = (checksums[i] != other.checksums[i]);
+
+		return different;
+	}
+
+	/**
+	 * Tiles of both images which are different
+	 *
+	 * @param img1Pixels
+	 * @param img2Pixels
+	 * @param width
+	 * @param height
+	 * @return for every tile (row by row) if it is different
+	 */
+	public static boolean[] findDifferentTiles(int[] img1Pixels, int[] img2Pixels, int width, int height)
+	{
+		return new PDFTileChecksum(img1Pixels, width, height).findDifferentTiles(new PDFTileChecksum(img2Pixels, width, height));
+	}
+
+	/**
+	 * Tiles of both gray images which are different
+	 *
+	 * @param img1Gray
+	 * @param img2Gray
+	 * @param width
+	 * @param height
+	 * @return for every tile (row by row) if it is different
+	 */
+	public static boolean[] findDifferentTiles(byte[] img1Gray, byte[] img2Gray, int width, int height)
+	{
+		return new PDFTileChecksum(img1Gray, width, height).findDifferentTiles(new PDFTileChecksum(img2Gray, width, height));
+	}
+
+	/**
+	 * is any of the tiles different
+	 *
+	 * @param differentTiles
+	 * @return
+	 */
+	public static boolean isAnyDifferent(boolean[] differentTiles)
+	{
+		for (boolean different : differentTiles)
+			if(different)
+				return true;
+
+		return false;
+	}
+}
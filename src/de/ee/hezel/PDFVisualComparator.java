@@ -33,25 +33,35 @@ import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-
-import javax.imageio.ImageIO;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import org.apache.log4j.Logger;
 
 import com.sun.pdfview.PDFFile;
 import com.sun.pdfview.PDFPage;
 
+import de.ee.hezel.PDFDifferenceMask.PixelRegion;
 import de.ee.hezel.logger.ICompareLogger;
+import de.ee.hezel.model.PDFHolder;
 import de.ee.hezel.model.PDFInfoHolder;
 import de.ee.hezel.model.PDFPageHolder;
 import de.ee.hezel.model.PDFInfoHolder.DifferenceType;
 import de.ee.hezel.model.pdfelemente.PDFEntryHolder;
 import de.ee.hezel.model.pdfelemente.PDFImageHolder;
+import de.ee.hezel.model.pdfelemente.PDFRegionHolder;
 import de.ee.hezel.model.pdfelemente.PDFTextHolder;
+import de.ee.hezel.util.RasterOps;
+import de.ee.hezel.util.RasterPool;
+import de.ee.hezel.util.SharedPool;
 
 /**
  * 
@@ -62,11 +72,48 @@ public class PDFVisualComparator extends AbstractPDFCompare {
 
 	static Logger log = Logger.getLogger(PDFVisualComparator.class.getName());
 	
+	// compare only the pixels of elements in regions, where the page structure differs.
+	// faster, but changes which do not affect the structure (e.g. a different font) remain unseen 
+	static final boolean REGION_FILTER = Boolean.getBoolean(PDFVisualComparator.class.getName() + ".REGION_FILTER");
+	
+	// render only the areas of the page, which contain elements to compare
+	static final boolean CLIP_RENDERING = Boolean.parseBoolean(System.getProperty(PDFVisualComparator.class.getName() + ".CLIP_RENDERING", "true"));
+	
+	// pixel compare: size of the blocks, whose different pixels are connected to regions
+	static final int MASK_BLOCK_SIZE = Integer.getInteger(PDFVisualComparator.class.getName() + ".MASK_BLOCK_SIZE", 4);
+	
+	// pixel compare: regions with less different pixels are ignored
+	static final int MIN_REGION_PIXELS = Integer.getInteger(PDFVisualComparator.class.getName() + ".MIN_REGION_PIXELS", 4);
+	
+	// render the pages of both documents at the same time and the next page, while the current one gets compared
+	static final boolean PARALLEL_RENDERING = Boolean.parseBoolean(System.getProperty(PDFVisualComparator.class.getName() + ".PARALLEL_RENDERING", "true"));
+	
+	// render and compare 8-bit gray images instead of color images, 
+	// enough for black-on-white documents and needs a quarter of the memory
+	static final boolean GRAYSCALE = Boolean.getBoolean(PDFVisualComparator.class.getName() + ".GRAYSCALE");
+	static final int IMAGE_TYPE = GRAYSCALE ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_ARGB;
+	
+	// compare low resolution images of both pages first and render only those tiles 
+	// in full resolution, which look different in the low resolution images
+	static final boolean COARSE_TO_FINE = Boolean.getBoolean(PDFVisualComparator.class.getName() + ".COARSE_TO_FINE");
+	
+	// the low resolution images are smaller by this factor
+	static final int COARSE_DIVISOR = Integer.getInteger(PDFVisualComparator.class.getName() + ".COARSE_DIVISOR", 4);
+	
+	// mean color difference of a low resolution pixel, which makes its tiles suspicious
+	static final int COARSE_THRESHOLD = Integer.getInteger(PDFVisualComparator.class.getName() + ".COARSE_THRESHOLD", 2);
+	
+	// width and height of a full resolution tile in pixel
+	static final int TILE_SIZE = Integer.getInteger(PDFVisualComparator.class.getName() + ".TILE_SIZE", 128);
+	
 	// a list of int arrays which gets reused
     private PDFInfoHolder pdfInfoHolder;
     private PDFVisualiseDifference pdfVisualiseDifference;
 	private File targetFolder;
 	
+	// rendered pages of the reference document, null if there is no store
+	private PDFRasterStore referenceStore;
+	
 	public PDFVisualComparator(File outputDir, ICompareLogger diffLog, PDFInfoHolder pdfih)
 	{
 		pdfVisualiseDifference = new PDFVisualiseDifference(outputDir, diffLog, pdfih);
@@ -76,6 +123,15 @@ public class PDFVisualComparator extends AbstractPDFCompare {
 		targetFolder = outputDir;
 	}
 	
+	/**
+	 * save only cropped tiles around the differences instead of the entire page
+	 * 
+	 * @param croppedOutput
+	 */
+	public void setCroppedOutput(boolean croppedOutput) {
+		pdfVisualiseDifference.setCroppedOutput(croppedOutput);
+	}
+	
     /**
      * start visual comparison
      * 
@@ -90,24 +146,113 @@ public class PDFVisualComparator extends AbstractPDFCompare {
     		return;
     	}
     	
+        final PDFFile pdf1 = pdfInfoHolder.getPDF1();
+        final PDFFile pdf2 = pdfInfoHolder.getPDF2();
+        int numPgs = pdf1.getNumPages();
+        referenceStore = PDFRasterStore.open(pdfInfoHolder.getPDFFile1());
+
+        // find all differences on all pages, the next page gets rendered 
+        // while the current one is compared. The pages of a document are 
+        // parsed one after the other, the parser shares the fonts (and 
+        // their glyph caches) between the pages.
+        Future<RenderedPage> nextPage = (numPgs > 0) ? startRenderPage(pdf1, pdf2, 1) : null;
+        for (int i = 1; i <= numPgs; i++) {
+        	Future<RenderedPage> currentPage = nextPage;
+        	nextPage = null;
+        	
+        	try {
+        		RenderedPage renderedPage;
+        		try {
+        			renderedPage = getResult(currentPage);
+        		} finally {
+        			if(i < numPgs)
+        				nextPage = startRenderPage(pdf1, pdf2, i+1);
+        		}
+        		
+	            // missing a page
+	            if(renderedPage.pagePDF2 == null)
+	            {
+	            	missingPage(renderedPage.pagePDF1, i);
+	            	continue;
+	            }
+	            
+	            // identical because of an incremental update
+	            if(pdfInfoHolder.isUnchangedPage(i-1))
+	            	continue;
+	            
+	            // find real visual differences
+	            findVisualDifferences(renderedPage, targetFolder);
+	            
+        	} catch (Exception e) {
+        		log.error(pdfInfoHolder.getFilename()+": "+e.getMessage(), e);
+        	}
+        }
+
+        // if there is a difference on one of the 
+        // pages mark the entire pdf as different
+        pdfInfoHolder.checkDifference();
+    }
+    
+    /**
+     * start pixel comparison
+     * 
+     * The rendered pages get compared without their structure. Every connected 
+     * region of different pixels becomes a different element of the page.
+     */
+    public void comparePages() {
+    	
+    	// could not find the new generated pdf document
+    	if(pdfInfoHolder.getDifferent() == DifferenceType.MISSINGDOCUMENT)
+    	{
+    		missingDocument(pdfInfoHolder.getPDF1());
+    		return;
+    	}
+    	
         PDFFile pdf1 = pdfInfoHolder.getPDF1();
         PDFFile pdf2 = pdfInfoHolder.getPDF2();
+        referenceStore = PDFRasterStore.open(pdfInfoHolder.getPDFFile1());
+        
+        // the structure contains only the different regions
+        pdfInfoHolder.setPDFStructure1(new PDFHolder(pdf1.getNumPages()));
+        pdfInfoHolder.setPDFStructure2(new PDFHolder(pdf2.getNumPages()));
+        
+		// check for different page amount
+		if(pdf1.getNumPages() != pdf2.getNumPages())
+		{
+			pdfInfoHolder.setDifferent(DifferenceType.MISSINGPAGE);
+			diff.log(pdfInfoHolder.getFilename()+": Different amount of pages: "+pdf1.getNumPages() +" to "+pdf2.getNumPages());
+		}	
 
         // find all differences on all pages
         for (int i = 1; i <= pdf1.getNumPages(); i++) {
-        	// get the current page
-            PDFPage pagePDF1 = pdf1.getPage(i);
-            PDFPage pagePDF2 = pdf2.getPage(i);
+        	try {
+	        	// get the current page
+	            PDFPage pagePDF1 = pdf1.loadPage(i, PDFRenderCache.isEnabled());
+	            PDFPage pagePDF2 = pdf2.loadPage(i, PDFRenderCache.isEnabled());
+            
+	            PDFPageHolder pdfPageHolder1 = new PDFPageHolder(i-1, pagePDF1.getWidth(), pagePDF1.getHeight());
+	            pdfInfoHolder.getPDFStructure1().addPageHolders(pdfPageHolder1);
 
-            // missing a page
-            if(pagePDF2 == null)
-            {
-            	missingPage(pagePDF1, i);
-            	continue;
-            }
+	            // missing a page
+	            if(pagePDF2 == null)
+	            {
+	            	pdfPageHolder1.setDifferent(true);
+	            	missingPage(pagePDF1, i);
+	            	continue;
+	            }
+            
+	            PDFPageHolder pdfPageHolder2 = new PDFPageHolder(i-1, pagePDF2.getWidth(), pagePDF2.getHeight());
+	            pdfInfoHolder.getPDFStructure2().addPageHolders(pdfPageHolder2);
             
-            // find real visual differences
-            findVisualDifferences(i, pagePDF1, pagePDF2, targetFolder);
+	            // identical because of an incremental update
+	            if(pdfInfoHolder.isUnchangedPage(i-1))
+	            	continue;
+            
+	            // find the different regions
+	            findPixelDifferences(i, pagePDF1, pagePDF2, pdfPageHolder1);
+        	} catch (IOException e) {
+        		log.error(pdfInfoHolder.getFilename()+": "+e.getMessage(), e);
+        	}
         }
 
         // if there is a difference on one of the 
@@ -121,9 +266,7 @@ public class PDFVisualComparator extends AbstractPDFCompare {
         	BufferedImage diffimg = pdfVisualiseDifference.drawPageInRed(pagePDF);
         	
     		// save the result
-    		String pathName = targetFolder+"/"+pdfInfoHolder.getFilename() + "_pdf/";
-    		File dir = new File(pathName);  dir.mkdirs();		
-    		ImageIO.write(diffimg, "PNG", new File(pathName+"page_"+pageNum+".png"));
+    		pdfVisualiseDifference.saveDifferenceImage(diffimg, pageNum, null, diffimg);
 		} catch (Exception e) {
 			log.error(e.getMessage(), e);
 		}
@@ -132,55 +275,502 @@ public class PDFVisualComparator extends AbstractPDFCompare {
     private void missingDocument(PDFFile pdf)
     {
         for (int i = 1; i <= pdf.getNumPages(); i++) {
-        	// get the current page
-            PDFPage pagePDF = pdf.getPage(i);
-            missingPage(pagePDF, i);
+        	try {
+	        	// get the current page
+	            PDFPage pagePDF = pdf.loadPage(i, PDFRenderCache.isEnabled());
+	            missingPage(pagePDF, i);
+        	} catch (IOException e) {
+        		log.error(pdfInfoHolder.getFilename()+": "+e.getMessage(), e);
+        	}
         }
     }
     
-    private void findVisualDifferences(int pageNum, PDFPage pagePDF1, PDFPage pagePDF2, File targetFolder)
+    /**
+     * Start to render the page of both documents in the background. 
+     * 
+     * @param pdf1
+     * @param pdf2
+     * @param pageNum
+     * @return
+     */
+    private Future<RenderedPage> startRenderPage(final PDFFile pdf1, final PDFFile pdf2, final int pageNum)
+    {
+    	return start(new Callable<RenderedPage>() {
+			@Override
+			public RenderedPage call() throws Exception {
+				return renderPage(pdf1.loadPage(pageNum, PDFRenderCache.isEnabled()), pdf2.loadPage(pageNum, PDFRenderCache.isEnabled()), pageNum);
+			}
+		});
+    }
+    
+    /**
+     * Find the elements which needs to be compared and 
+     * render the page of both documents.
+     * 
+     * @param pagePDF1
+     * @param pagePDF2
+     * @param pageNum
+     * @return
+     * @throws Exception
+     */
+    private RenderedPage renderPage(PDFPage pagePDF1, PDFPage pagePDF2, int pageNum) throws Exception
     {
-    	 try {
-    		 	// convert the page in a image
-    		 	BufferedImage pageImgPDF1 = PDFVisualiseDifference.convertPage(pagePDF1);
-    		 	BufferedImage pageImgPDF2 = PDFVisualiseDifference.convertPage(pagePDF2);
-           
-	            // get the structure elements for this page
-	            PDFPageHolder pdfPageHolder1 = pdfInfoHolder.getPDFStructure1().getPageHolder(pageNum - 1);
-	            PDFPageHolder pdfPageHolder2 = pdfInfoHolder.getPDFStructure2().getPageHolder(pageNum - 1);
-	
-	            Set<PDFEntryHolder> entryHolders = new HashSet<PDFEntryHolder>(pdfPageHolder1.getElements());
-	            entryHolders.addAll(pdfPageHolder2.getElements());
+    	RenderedPage renderedPage = new RenderedPage(pageNum, pagePDF1, pagePDF2);
+    	
+    	// missing or identical page
+    	if(pagePDF2 == null || pdfInfoHolder.isUnchangedPage(pageNum-1))
+    		return renderedPage;
+    	
+        // get the structure elements for this page
+        PDFPageHolder pdfPageHolder1 = pdfInfoHolder.getPDFStructure1().getPageHolder(pageNum - 1);
+        PDFPageHolder pdfPageHolder2 = pdfInfoHolder.getPDFStructure2().getPageHolder(pageNum - 1);
+
+        renderedPage.entryHolders = new HashSet<PDFEntryHolder>(pdfPageHolder1.getElements());
+        renderedPage.entryHolders.addAll(pdfPageHolder2.getElements());
+        renderedPage.checkEntryHolders = filterChangedRegions(renderedPage.entryHolders, pdfPageHolder1, pdfPageHolder2);
+        
+        // parts of the page which need to be rendered, null for the entire page
+        List<Rectangle> tiles = null;
+        if(isTileable(pagePDF1, pagePDF2))
+        {
+        	// full resolution tiles which look different in low resolution
+        	if(COARSE_TO_FINE)
+        	{
+        		tiles = findSuspiciousTiles(pagePDF1, pagePDF2);
+        		if(tiles != null)
+        			renderedPage.checkEntryHolders = filterSuspiciousTiles(renderedPage.checkEntryHolders, tiles, pagePDF1);
+        	}
+        	
+        	// tiles around the elements to compare
+        	if(tiles == null && CLIP_RENDERING)
+        		tiles = planElementTiles(renderedPage.checkEntryHolders, pagePDF1);
+        }
+        renderedPage.tiles = tiles;
+        
+        // convert the page or only its tiles in a image
+        if(tiles == null || !renderedPage.checkEntryHolders.isEmpty())
+        {
+	        BufferedImage[] pageImgs = convertPages(pagePDF1, pagePDF2, tiles, PDFVisualiseDifference.IMAGE_SCALER);
+	        renderedPage.pageImgPDF1 = pageImgs[0];
+	        renderedPage.pageImgPDF2 = pageImgs[1];
+        }
+        
+        return renderedPage;
+    }
+    
+    private void findVisualDifferences(RenderedPage renderedPage, File targetFolder) throws Exception
+    {
+    	int pageNum = renderedPage.pageNum;
+    	
+        // get the structure elements for this page
+        PDFPageHolder pdfPageHolder1 = pdfInfoHolder.getPDFStructure1().getPageHolder(pageNum - 1);
+        PDFPageHolder pdfPageHolder2 = pdfInfoHolder.getPDFStructure2().getPageHolder(pageNum - 1);
+        
+        BufferedImage pageImgPDF1 = renderedPage.pageImgPDF1;
+        BufferedImage pageImgPDF2 = renderedPage.pageImgPDF2;
+
+        try {
+	        // compare both images only at those place where a entryholder says
+	        if(!renderedPage.checkEntryHolders.isEmpty())
+	        	comparePDFEntries(pageImgPDF1, pageImgPDF2, renderedPage.checkEntryHolders, pageNum);
 	
-	            // compare both images only at those place where a entryholder says
-	            comparePDFEntries(pageImgPDF1, pageImgPDF2, entryHolders, pageNum);
+	        // check if a difference was found
+	        pdfPageHolder1.checkDifference();
+	        pdfPageHolder2.checkDifference();
 	
-	            // check if a difference was found
-	            pdfPageHolder1.checkDifference();
-	            pdfPageHolder2.checkDifference();
+	        // mark the found differences visual
+	        if (targetFolder != null && (pdfPageHolder1.isDifferent() || pdfPageHolder2.isDifferent())) 
+	        {
+	        	// the difference image shows the entire page
+	        	if(renderedPage.tiles != null)
+	        	{
+	        		BufferedImage[] pageImgs = convertPages(renderedPage.pagePDF1, renderedPage.pagePDF2, null, PDFVisualiseDifference.IMAGE_SCALER);
+	        		pageImgPDF1 = pageImgs[0];
+	        		pageImgPDF2 = pageImgs[1];
+	        	}
+	        	
+	        	// create a illustration which shows the differences
+	            BufferedImage diffimg = pdfVisualiseDifference.visualiseDifferences(pageImgPDF1, pageImgPDF2, renderedPage.entryHolders);
 	
-	            // mark the found differences visual
-	            if (targetFolder != null && (pdfPageHolder1.isDifferent() || pdfPageHolder2.isDifferent())) 
+	            // saving releases the images
+	            BufferedImage[] release = { diffimg, pageImgPDF1, pageImgPDF2 };
+	            if(pageImgPDF1 == renderedPage.pageImgPDF1)
 	            {
-	            	// create a illustration which shows the differences
-	                BufferedImage diffimg = pdfVisualiseDifference.visualiseDifferences(pageImgPDF1, pageImgPDF2, entryHolders);
-	
-	                // save the difference image if desired
-	                String pathName = targetFolder + "/" + pdfInfoHolder.getFilename() + "_pdf/";
-	                File dir = new File(pathName);
-	                dir.mkdirs();
-	                ImageIO.write(diffimg, "PNG", new File(pathName + "page_" + pageNum + ".png"));
+	            	renderedPage.pageImgPDF1 = null;
+	            	renderedPage.pageImgPDF2 = null;
 	            }
-         
-			} catch (Exception e) {
-				log.error(pdfInfoHolder.getFilename()+": "+e.getMessage(), e);
+	            pageImgPDF1 = null;
+	            pageImgPDF2 = null;
+	            
+	            // save the difference image if desired
+	            pdfVisualiseDifference.saveDifferenceImage(diffimg, pageNum, renderedPage.entryHolders, release);
+	        }
+        } finally {
+        	// the images are not needed anymore
+        	RasterPool.release(renderedPage.pageImgPDF1);
+        	RasterPool.release(renderedPage.pageImgPDF2);
+        	if(pageImgPDF1 != renderedPage.pageImgPDF1)
+        	{
+        		RasterPool.release(pageImgPDF1);
+        		RasterPool.release(pageImgPDF2);
+        	}
+        }
+    }
+    
+    /**
+     * Convert the page of both documents in an image at the same time.
+     * The images are gray, if the GRAYSCALE mode is active.
+     * 
+     * @param pagePDF1
+     * @param pagePDF2
+     * @param tiles in full resolution or null for the entire page
+     * @param scaler zoom factor if the entire page gets converted
+     * @return both images
+     * @throws Exception
+     */
+    private BufferedImage[] convertPages(final PDFPage pagePDF1, final PDFPage pagePDF2, final List<Rectangle> tiles, final double scaler) throws Exception
+    {
+    	Future<BufferedImage> pageImgPDF2 = start(new Callable<BufferedImage>() {
+			@Override
+			public BufferedImage call() throws Exception {
+				return (tiles == null) ? PDFVisualiseDifference.convertPage(pagePDF2, scaler, IMAGE_TYPE) : PDFVisualiseDifference.convertTiles(pagePDF2, tiles, IMAGE_TYPE);
 			}
+		});
+    	
+    	// the whole reference page might be stored from an earlier run
+    	BufferedImage pageImgPDF1 = (tiles == null) ? PDFVisualiseDifference.convertPage(pagePDF1, scaler, IMAGE_TYPE, referenceStore) : PDFVisualiseDifference.convertTiles(pagePDF1, tiles, IMAGE_TYPE);
+    	
+    	return new BufferedImage[] { pageImgPDF1, getResult(pageImgPDF2) };
+    }
+    
+    /**
+     * Run the task on the shared pool or right away, if parallel rendering is disabled.
+     * 
+     * @param task
+     * @return
+     */
+    private static <T> Future<T> start(Callable<T> task)
+    {
+    	if(PARALLEL_RENDERING)
+    		return SharedPool.get().submit(task);
+    	
+    	FutureTask<T> future = new FutureTask<T>(task);
+    	future.run();
+    	return future;
+    }
+    
+    /**
+     * Wait for the result of the task. 
+     * 
+     * @param future
+     * @return
+     * @throws Exception thrown by the task
+     */
+    private static <T> T getResult(Future<T> future) throws Exception
+    {
+    	try {
+    		return future.get();
+    	} catch (ExecutionException e) {
+    		if(e.getCause() instanceof Exception)
+    			throw (Exception) e.getCause();
+    		if(e.getCause() instanceof Error)
+    			throw (Error) e.getCause();
+    		throw e;
+    	}
+    }
+    
+    private void findPixelDifferences(int pageNum, PDFPage pagePDF1, PDFPage pagePDF2, PDFPageHolder pdfPageHolder)
+    {
+    	try {
+    		// full resolution tiles which look different in low resolution
+    		List<Rectangle> tiles = (COARSE_TO_FINE && isTileable(pagePDF1, pagePDF2)) ? findSuspiciousTiles(pagePDF1, pagePDF2) : null;
+    		
+    		// identical pages
+    		if(tiles != null && tiles.isEmpty())
+    			return;
+    		
+    		// convert the page or its suspicious tiles in a image
+    		BufferedImage[] pageImgs = convertPages(pagePDF1, pagePDF2, tiles, PDFVisualiseDifference.IMAGE_SCALER);
+    		try {
+    			comparePixels(pageNum, pagePDF1, pagePDF2, pdfPageHolder, tiles, pageImgs);
+    		} finally {
+    			RasterPool.release(pageImgs[0]);
+    			RasterPool.release(pageImgs[1]);
+    		}
+            
+    	} catch (Exception e) {
+    		log.error(pdfInfoHolder.getFilename()+": "+e.getMessage(), e);
+    	}
+    }
+    
+    /**
+     * Find the regions of different pixels on the rendered pages.
+     * 
+     * @param pageNum
+     * @param pagePDF1
+     * @param pagePDF2
+     * @param pdfPageHolder
+     * @param tiles which have been rendered or null for the entire page
+     * @param pageImgs of both documents
+     * @throws Exception
+     */
+    private void comparePixels(int pageNum, PDFPage pagePDF1, PDFPage pagePDF2, PDFPageHolder pdfPageHolder, List<Rectangle> tiles, BufferedImage[] pageImgs) throws Exception
+    {
+    	BufferedImage pageImgPDF1 = pageImgs[0];
+    	BufferedImage pageImgPDF2 = pageImgs[1];
+    	
+    	int pageWidth = pageImgPDF1.getWidth();
+    	int pageHeight = pageImgPDF1.getHeight();
+    	
+    	// pages with a different size are different everywhere
+    	if(pageWidth != pageImgPDF2.getWidth() || pageHeight != pageImgPDF2.getHeight())
+    	{
+    		PDFRegionHolder pdfRegionHolder = new PDFRegionHolder(0, 0, pagePDF1.getWidth(), pagePDF1.getHeight());
+    		pdfRegionHolder.setDifferent(true);
+    		pdfPageHolder.addElement(pdfRegionHolder);
+    		pdfPageHolder.checkDifference();
+    		
+    		diff.log(pdfInfoHolder.getFilename()+": Page " + pageNum + " has a different size");
+    		missingPage(pagePDF1, pageNum);
+    		return;
+    	}
+    	
+    	// connected regions of different pixels, only different tiles need a pixel check
+    	PDFDifferenceMask mask;
+    	byte[] img1Gray = PDFVisualiseDifference.getGrayPixels(pageImgPDF1);
+    	byte[] img2Gray = PDFVisualiseDifference.getGrayPixels(pageImgPDF2);
+    	if(img1Gray != null && img2Gray != null)
+    	{
+    		boolean[] differentTiles = PDFTileChecksum.findDifferentTiles(img1Gray, img2Gray, pageWidth, pageHeight);
+    		mask = new PDFDifferenceMask(img1Gray, img2Gray, pageWidth, pageHeight, MASK_BLOCK_SIZE, differentTiles);
+    	}
+    	else
+    	{
+    		int[] img1Pixels = PDFVisualiseDifference.getPixels(pageImgPDF1);
+    		int[] img2Pixels = PDFVisualiseDifference.getPixels(pageImgPDF2);
+    		boolean[] differentTiles = PDFTileChecksum.findDifferentTiles(img1Pixels, img2Pixels, pageWidth, pageHeight);
+    		mask = new PDFDifferenceMask(img1Pixels, img2Pixels, pageWidth, pageHeight, MASK_BLOCK_SIZE, differentTiles);
+    	}
+    	
+    	DecimalFormat df = new DecimalFormat( "####.###" );
+    	for (PixelRegion region : mask.findRegions(MIN_REGION_PIXELS)) 
+    	{
+    		// position and size in the page space
+    		Rectangle bounds = region.getBounds();
+    		PDFRegionHolder pdfRegionHolder = new PDFRegionHolder(bounds.x / PDFVisualiseDifference.IMAGE_SCALER, bounds.y / PDFVisualiseDifference.IMAGE_SCALER, 
+    				bounds.width / PDFVisualiseDifference.IMAGE_SCALER, bounds.height / PDFVisualiseDifference.IMAGE_SCALER, region.getPixelCount());
+    		pdfRegionHolder.setDifferent(true);
+    		pdfPageHolder.addElement(pdfRegionHolder);
+    		
+    		diff.log(pdfInfoHolder.getFilename()+": Region on page " + pageNum 
+    				+ " at position " + df.format(pdfRegionHolder.getX())+" | " + df.format(pdfRegionHolder.getY()) + " with size " 
+    				+ df.format(pdfRegionHolder.getWidth()) + " width and " + df.format(pdfRegionHolder.getHeight()) + " height looks different");
+    	}
+    	
+    	// check if a difference was found
+    	pdfPageHolder.checkDifference();
+    	
+    	// mark the found differences visual
+    	if (targetFolder != null && pdfPageHolder.isDifferent()) 
+    	{
+    		// the difference image shows the entire page
+    		BufferedImage[] fullImgs = (tiles != null) ? convertPages(pagePDF1, pagePDF2, null, PDFVisualiseDifference.IMAGE_SCALER) : pageImgs;
+    		try {
+    			// create a illustration which shows the differences
+    			BufferedImage diffimg = pdfVisualiseDifference.visualiseDifferences(fullImgs[0], fullImgs[1], pdfPageHolder.getElements());
+    			
+    			// saving releases the images
+    			BufferedImage[] release = { diffimg, fullImgs[0], fullImgs[1] };
+    			fullImgs[0] = null;
+    			fullImgs[1] = null;
+    			
+    			// save the difference image if desired
+    			pdfVisualiseDifference.saveDifferenceImage(diffimg, pageNum, pdfPageHolder.getElements(), release);
+    		} finally {
+    			if(fullImgs != pageImgs)
+    			{
+    				RasterPool.release(fullImgs[0]);
+    				RasterPool.release(fullImgs[1]);
+    			}
+    		}
+    	}
+    }
+    
+    /**
+     * Tiles can only be rendered on pages without rotation and with the same size.
+     * 
+     * @param pagePDF1
+     * @param pagePDF2
+     * @return
+     */
+    private boolean isTileable(PDFPage pagePDF1, PDFPage pagePDF2)
+    {
+    	return pagePDF1.getRotation() == 0 && pagePDF2.getRotation() == 0 
+    			&& (int) pagePDF1.getBBox().getWidth() == (int) pagePDF2.getBBox().getWidth() 
+    			&& (int) pagePDF1.getBBox().getHeight() == (int) pagePDF2.getBBox().getHeight();
     }
+    
+    /**
+     * Render both pages in low resolution and search for different pixels.
+     * Every full resolution tile around such a pixel is suspicious.
+     * 
+     * @param pagePDF1
+     * @param pagePDF2
+     * @return suspicious tiles in pixel coordinates of the full resolution page image 
+     * or null if the entire page should be compared
+     */
+    private List<Rectangle> findSuspiciousTiles(PDFPage pagePDF1, PDFPage pagePDF2) throws Exception
+    {
+    	// convert the page in a low resolution image
+    	BufferedImage[] coarseImgs = convertPages(pagePDF1, pagePDF2, null, PDFVisualiseDifference.IMAGE_SCALER / COARSE_DIVISOR);
+    	BufferedImage coarseImgPDF1 = coarseImgs[0];
+    	BufferedImage coarseImgPDF2 = coarseImgs[1];
+    	
+    	int coarseWidth = coarseImgPDF1.getWidth();
+    	int coarseHeight = coarseImgPDF1.getHeight();
+    	if(coarseWidth == 0 || coarseHeight == 0 
+    			|| coarseWidth != coarseImgPDF2.getWidth() || coarseHeight != coarseImgPDF2.getHeight())
+    	{
+    		RasterPool.release(coarseImgPDF1);
+    		RasterPool.release(coarseImgPDF2);
+    		return null;
+    	}
+    	
+    	// 1d pixel array, either gray values or colors
+		byte[] img1Gray = PDFVisualiseDifference.getGrayPixels(coarseImgPDF1);
+		byte[] img2Gray = PDFVisualiseDifference.getGrayPixels(coarseImgPDF2);
+		boolean gray = (img1Gray != null && img2Gray != null);
+		int[] img1Pixels = gray ? null : PDFVisualiseDifference.getPixels(coarseImgPDF1);
+		int[] img2Pixels = gray ? null : PDFVisualiseDifference.getPixels(coarseImgPDF2);
+		
+		// dimension of the full resolution image
+		int pageWidth = (int) ((int) pagePDF1.getBBox().getWidth() * PDFVisualiseDifference.IMAGE_SCALER);
+		int pageHeight = (int) ((int) pagePDF1.getBBox().getHeight() * PDFVisualiseDifference.IMAGE_SCALER);
+		double ratioX = (double) pageWidth / coarseWidth;
+		double ratioY = (double) pageHeight / coarseHeight;
+		
+		PDFRenderPlanner planner = new PDFRenderPlanner(pageWidth, pageHeight, TILE_SIZE);
+		for (int y = 0; y < coarseHeight; y++) {
+			for (int x = 0; x < coarseWidth; x++) {
+				
+				int pos = y * coarseWidth + x;
+				int colorDiff = gray ? PDFDifferenceMap.grayDifference(img1Gray[pos], img2Gray[pos]) 
+						: PDFDifferenceMap.colorDifference(img1Pixels[pos], img2Pixels[pos]);
+				
+				// mean color difference below the threshold
+				if(colorDiff <= 3 * COARSE_THRESHOLD)
+					continue;
+				
+				// the pixel and its neighbours in full resolution, 
+				// a small change might blur into them 
+				int minX = Math.max(0, (int) ((x - 1) * ratioX));
+				int maxX = Math.min(pageWidth, (int) Math.ceil((x + 2) * ratioX));
+				int minY = Math.max(0, (int) ((y - 1) * ratioY));
+				int maxY = Math.min(pageHeight, (int) Math.ceil((y + 2) * ratioY));
+				planner.add(minX, minY, maxX - minX, maxY - minY);
+			}
+		}
+		
+		RasterPool.release(coarseImgPDF1);
+		RasterPool.release(coarseImgPDF2);
+		
+		List<Rectangle> tiles = planner.getTiles();
+		log.debug(pdfInfoHolder.getFilename()+": "+((tiles == null) ? "all" : tiles.size())+" suspicious tiles on page "+pagePDF1.getPageNumber());
+		
+		return tiles;
+    }
+    
+    /**
+     * Plan the tiles, which cover all elements to compare.
+     * 
+     * @param entryHolders elements which needs a pixel check
+     * @param pagePDF
+     * @return tiles in pixel coordinates of the page image or null for the entire page 
+     */
+    private List<Rectangle> planElementTiles(Set<PDFEntryHolder> entryHolders, PDFPage pagePDF)
+    {
+		int pageWidth = (int) ((int) pagePDF.getBBox().getWidth() * PDFVisualiseDifference.IMAGE_SCALER);
+		int pageHeight = (int) ((int) pagePDF.getBBox().getHeight() * PDFVisualiseDifference.IMAGE_SCALER);
+		
+		PDFRenderPlanner planner = new PDFRenderPlanner(pageWidth, pageHeight);
+		for (PDFEntryHolder pdfEntryHolder : entryHolders) 
+		{
+			// dimension of the entry holder for the current zoom factor
+			int entryX = (int)(pdfEntryHolder.getX() * PDFVisualiseDifference.IMAGE_SCALER);
+			int entryY = (int)(pdfEntryHolder.getY() * PDFVisualiseDifference.IMAGE_SCALER);
+			int entryWidth = (int)(pdfEntryHolder.getWidth() * PDFVisualiseDifference.IMAGE_SCALER);
+			int entryHeight = (int)(pdfEntryHolder.getHeight() * PDFVisualiseDifference.IMAGE_SCALER);
+			planner.add(entryX, entryY, entryWidth, entryHeight);
+		}
+		
+		return planner.getTiles();
+    }
+    
+	/**
+	 * Remove all elements outside of the suspicious tiles. Both pages are 
+	 * identical at their place and they are marked as not different.
+	 * Elements beyond the page boundaries are always checked.
+	 * 
+	 * @param entryHolders elements which needs a pixel check
+	 * @param tiles suspicious tiles of the page
+	 * @param pagePDF
+	 * @return elements inside the suspicious tiles
+	 */
+	private Set<PDFEntryHolder> filterSuspiciousTiles(Set<PDFEntryHolder> entryHolders, List<Rectangle> tiles, PDFPage pagePDF)
+	{
+		int pageWidth = (int) ((int) pagePDF.getBBox().getWidth() * PDFVisualiseDifference.IMAGE_SCALER);
+		int pageHeight = (int) ((int) pagePDF.getBBox().getHeight() * PDFVisualiseDifference.IMAGE_SCALER);
+		
+		Set<PDFEntryHolder> suspiciousEntryHolders = new HashSet<PDFEntryHolder>();
+		for (PDFEntryHolder pdfEntryHolder : entryHolders) 
+		{
+			// dimension of the entry holder for the current zoom factor
+			int entryX = (int)(pdfEntryHolder.getX() * PDFVisualiseDifference.IMAGE_SCALER);
+			int entryY = (int)(pdfEntryHolder.getY() * PDFVisualiseDifference.IMAGE_SCALER);
+			int entryWidth = (int)(pdfEntryHolder.getWidth() * PDFVisualiseDifference.IMAGE_SCALER);
+			int entryHeight = (int)(pdfEntryHolder.getHeight() * PDFVisualiseDifference.IMAGE_SCALER);
+			
+			boolean suspicious = (entryX + entryWidth > pageWidth || entryY + entryHeight > pageHeight);
+			for (int i = 0; i < tiles.size() && !suspicious; i++)
+				suspicious = tiles.get(i).intersects(entryX, entryY, entryWidth, entryHeight);
+			
+			if(suspicious)
+				suspiciousEntryHolders.add(pdfEntryHolder);
+			else
+				pdfEntryHolder.setDifferent(false);
+		}
+		
+		return suspiciousEntryHolders;
+	}
+	
+	/**
+	 * If the region filter is enabled, remove all elements which lie
+	 * in a region of the page whose structure is identical in both pdfs.
+	 * 
+	 * @param entryHolders all elements of the page
+	 * @param pdfPageHolder1
+	 * @param pdfPageHolder2
+	 * @return elements which needs a pixel check
+	 */
+	private Set<PDFEntryHolder> filterChangedRegions(Set<PDFEntryHolder> entryHolders, PDFPageHolder pdfPageHolder1, PDFPageHolder pdfPageHolder2)
+	{
+		if(!REGION_FILTER)
+			return entryHolders;
+		
+		Set<PDFEntryHolder> changedEntryHolders = new HashSet<PDFEntryHolder>(entryHolders);
+		changedEntryHolders.removeAll(pdfPageHolder1.getRegionTree().findUnchangedElements(pdfPageHolder2.getRegionTree()));
+		changedEntryHolders.removeAll(pdfPageHolder2.getRegionTree().findUnchangedElements(pdfPageHolder1.getRegionTree()));
+		
+		return changedEntryHolders;
+	}
 	
 	/**
 	 * The given entry holder mark those places in the image, which are interesting.
 	 * Compare the area around those places and mark them if their are different.
 	 * 
+	 * The differences of the entire page are summed up once, afterwards
+	 * the difference of every entry holder is a lookup in those tables. 
+	 * 
 	 * EntryHolder.isDifferent tells us if this place is visually different
 	 * 
 	 * @param pageImgPDF1
@@ -192,90 +782,234 @@ public class PDFVisualComparator extends AbstractPDFCompare {
 		int pageWidth = pageImgPDF1.getWidth();
 		int pageHeight = pageImgPDF1.getHeight();
 		
-		// 1d pixel array
-		int[] img1Pixels = pdfVisualiseDifference.getPixelArray(1, pageWidth*pageHeight);
-		int[] img2Pixels = pdfVisualiseDifference.getPixelArray(2, pageWidth*pageHeight);
+		// 1d pixel array, gray images of the same size are compared by their gray values
+		int[] img1Pixels = null, img2Pixels = null;
+		boolean sameSize = (pageWidth == pageImgPDF2.getWidth() && pageHeight == pageImgPDF2.getHeight());
+		byte[] img1Gray = sameSize ? PDFVisualiseDifference.getGrayPixels(pageImgPDF1) : null;
+		byte[] img2Gray = sameSize ? PDFVisualiseDifference.getGrayPixels(pageImgPDF2) : null;
 		
-		// copy pixel array
-		pageImgPDF1.getRGB(0, 0, pageWidth, pageHeight, img1Pixels, 0, pageWidth);
-		pageImgPDF2.getRGB(0, 0, pageWidth, pageHeight, img2Pixels, 0, pageWidth);
+		// summed-area table of the different pixels, only different tiles need a pixel check
+		PDFDifferenceMap diffMap;
+		if(img1Gray != null && img2Gray != null)
+		{
+			boolean[] differentTiles = PDFTileChecksum.findDifferentTiles(img1Gray, img2Gray, pageWidth, pageHeight);
+			diffMap = new PDFDifferenceMap(img1Gray, img2Gray, pageWidth, pageHeight, differentTiles);
+		}
+		else
+		{
+			// the pixels of the 2nd image are aligned to the 1st one
+			img1Pixels = PDFVisualiseDifference.getPixels(pageImgPDF1);
+			img2Pixels = PDFVisualiseDifference.getPixels(pageImgPDF2, pageWidth, pageHeight);
+			boolean[] differentTiles = PDFTileChecksum.findDifferentTiles(img1Pixels, img2Pixels, pageWidth, pageHeight);
+			diffMap = new PDFDifferenceMap(img1Pixels, img2Pixels, pageWidth, pageHeight, differentTiles);
+		}
 		
 		// search for differences inside the area of all elements
-		for (PDFEntryHolder pdfEntryHolder : entryHolders) 
+		try {
+			for (PDFEntryHolder pdfEntryHolder : entryHolders) 
+			{
+				// dimension of the entry holder for the current zoom factor
+				int entryX = (int)(pdfEntryHolder.getX() * PDFVisualiseDifference.IMAGE_SCALER);
+				int entryY = (int)(pdfEntryHolder.getY() * PDFVisualiseDifference.IMAGE_SCALER);
+				int entryWidth = (int)(pdfEntryHolder.getWidth() * PDFVisualiseDifference.IMAGE_SCALER);
+				int entryHeight = (int)(pdfEntryHolder.getHeight() * PDFVisualiseDifference.IMAGE_SCALER);
+			
+				int diffValue;
+				boolean isImage = pdfEntryHolder instanceof PDFImageHolder;
+			
+				// beyond the page boundaries or without a center for the pixel importance
+				if(entryX+entryWidth > pageWidth || entryY+entryHeight > pageHeight 
+						|| (isImage && (entryWidth/2 == 0 || entryHeight/2 == 0)))
+				{
+					// colors of gray images are only needed here
+					if(img1Pixels == null)
+					{
+						img1Pixels = PDFVisualiseDifference.getPixels(pageImgPDF1);
+						img2Pixels = PDFVisualiseDifference.getPixels(pageImgPDF2, pageWidth, pageHeight);
+					}
+					diffValue = scanDifference(img1Pixels, img2Pixels, pageWidth, pageHeight, entryX, entryY, entryWidth, entryHeight, isImage);
+				}
+				else if(isImage)
+					diffValue = weightedDifference(diffMap, entryX, entryY, entryWidth, entryHeight);
+				else
+				{
+					int x = Math.max(0, entryX), y = Math.max(0, entryY);
+					diffValue = (entryX+entryWidth > x && entryY+entryHeight > y) ? diffMap.getCount(x, y, entryX+entryWidth-x, entryY+entryHeight-y) : 0;
+				}
+			
+				// mark the entry holder as different, if the images
+				// at this position differ from each other
+				analyseDifference(diffValue, pdfEntryHolder, pageNum);
+			}
+		} finally {
+			// the table is leased from the raster pool
+			diffMap.release();
+		}
+	}
+	
+	/**
+	 * Amount of different pixels inside an image. Pixel at the edge 
+	 * of the image are more important and count up to 11 times.
+	 * 
+	 * The importance of a pixel depends on its column, till the row 
+	 * gets more important further to the right. Every row is split at
+	 * this column and the columns with the same importance are grouped. 
+	 * 
+	 * @param diffMap
+	 * @param entryX
+	 * @param entryY
+	 * @param entryWidth
+	 * @param entryHeight
+	 * @return
+	 */
+	private int weightedDifference(PDFDifferenceMap diffMap, int entryX, int entryY, int entryWidth, int entryHeight)
+	{
+		int minX = Math.max(0, entryX), maxX = entryX + entryWidth;
+		int minY = Math.max(0, entryY), maxY = entryY + entryHeight;
+		if(minX >= maxX || minY >= maxY)
+			return 0;
+		
+		// deviation and importance of every column
+		int columns = maxX - minX;
+		double[] xDeviations = new double[columns];
+		int[] xImportance = new int[columns];
+		for (int x = minX; x < maxX; x++) 
+		{
+			xDeviations[x - minX] = (double)((entryX+(entryWidth/2)) - x) / (entryWidth/2);
+			xImportance[x - minX] = pixelImportance(xDeviations[x - minX]);
+		}
+		
+		int diffValue = 0;
+		for (int y = minY; y < maxY; y++) 
 		{
-			//  pixel different for different metricies
-			int diffValue = 0, diffValueL1 = 0, diffValueL2 = 0;
+			double yDeviationToBorder = (double)((entryY+(entryHeight/2)) - y) / (entryHeight/2);
 			
-			// dimension of the entry holder for the current zoom factor
-			int entryX = (int)(pdfEntryHolder.getX() * PDFVisualiseDifference.IMAGE_SCALER);
-			int entryY = (int)(pdfEntryHolder.getY() * PDFVisualiseDifference.IMAGE_SCALER);
-			int entryWidth = (int)(pdfEntryHolder.getWidth() * PDFVisualiseDifference.IMAGE_SCALER);
-			int entryHeight = (int)(pdfEntryHolder.getHeight() * PDFVisualiseDifference.IMAGE_SCALER);
+			// the deviations of the columns decrease, find the first 
+			// column whose deviation does not exceed the one of the row
+			int low = 0, high = columns;
+			while(low < high)
+			{
+				int mid = (low + high) >>> 1;
+				if(yDeviationToBorder < xDeviations[mid])
+					low = mid + 1;
+				else
+					high = mid;
+			}
 			
-			// pixel at the edge are sometimes more important
-			double pixelImportance = 1;
+			// columns with the same importance
+			int x = 0;
+			while(x < low)
+			{
+				int end = x + 1;
+				while(end < low && xImportance[end] == xImportance[x])
+					end++;
+				
+				diffValue += xImportance[x] * diffMap.getCount(minX + x, y, end - x, 1);
+				x = end;
+			}
 			
-			// search for different pixels 
-			for (int y = ((entryY < 0) ? 0 : entryY); y < entryY+entryHeight; y++) {
-                if (y * pageWidth >= img1Pixels.length) {
-                    log.error(pdfInfoHolder.getFilename()+": graphics boundaries exceed page boundaries. y=" + y + ", pageWidth=" + pageWidth);
+			// the rest of the row
+			if(low < columns)
+				diffValue += pixelImportance(yDeviationToBorder) * diffMap.getCount(minX + low, y, columns - low, 1);
+		}
+		
+		return diffValue;
+	}
+	
+	/**
+	 * importance of a pixel, depending on its deviation from 
+	 * the center to the border of an image (0 to 1)
+	 * 
+	 * @param maxDeviation
+	 * @return
+	 */
+	private static int pixelImportance(double maxDeviation)
+	{
+		double sqrtDeviation = ((maxDeviation*10)*(maxDeviation*10))/10;
+		return (int)(1 + sqrtDeviation);
+	}
+	
+	/**
+	 * Amount of different pixels inside an element, pixel by pixel.
+	 * Elements beyond the page boundaries count as different.
+	 * 
+	 * @param img1Pixels
+	 * @param img2Pixels
+	 * @param pageWidth
+	 * @param pageHeight
+	 * @param entryX
+	 * @param entryY
+	 * @param entryWidth
+	 * @param entryHeight
+	 * @param isImage pixel at the edge of images are more important
+	 * @return
+	 */
+	private int scanDifference(int[] img1Pixels, int[] img2Pixels, int pageWidth, int pageHeight, int entryX, int entryY, int entryWidth, int entryHeight, boolean isImage)
+	{
+		//  pixel different
+		int diffValue = 0;
+		
+		// pixel at the edge are sometimes more important
+		double pixelImportance = 1;
+		
+		// elements inside of the page without weighted pixels are counted in bulk
+		int fromX = (entryX < 0) ? 0 : entryX;
+		int fromY = (entryY < 0) ? 0 : entryY;
+		if(!isImage && entryX+entryWidth <= pageWidth && entryY+entryHeight <= pageHeight)
+			return RasterOps.countDifferences(img1Pixels, img2Pixels, pageWidth, 
+					new Rectangle(fromX, fromY, entryX+entryWidth-fromX, entryY+entryHeight-fromY), PDFDifferenceMap.PIXEL_THRESHOLD);
+		
+		// search for different pixels 
+		for (int y = fromY; y < entryY+entryHeight; y++) {
+            if (y >= pageHeight) {
+                log.error(pdfInfoHolder.getFilename()+": graphics boundaries exceed page boundaries. y=" + y + ", pageWidth=" + pageWidth);
+                diffValue = Integer.MAX_VALUE;
+                break;
+            }
+			for (int x = fromX; x < entryX+entryWidth; x++) {
+				
+				// pixel position in the 1d pixel array
+				int pos = y * pageWidth + x;
+                if (pos >= pageWidth * pageHeight) {
+                    log.error(pdfInfoHolder.getFilename()+": graphics boundaries exceed page boundaries. y=" + y + ", x=" + x + ", pageWidth=" + pageWidth);
                     diffValue = Integer.MAX_VALUE;
                     break;
                 }
-				for (int x = ((entryX < 0) ? 0 : entryX); x < entryX+entryWidth; x++) {
-					
-					// pixel position in the 1d pixel array
-					int pos = y * pageWidth + x;
-                    if (pos >= img1Pixels.length) {
-                        log.error(pdfInfoHolder.getFilename()+": graphics boundaries exceed page boundaries. y=" + y + ", x=" + x + ", pageWidth=" + pageWidth);
-                        diffValue = Integer.MAX_VALUE;
-                        break;
-                    }
-					
-                    // calc gray value for 1st image
-					int r_img1 = (img1Pixels[pos] >> 16) & 255;
-					int g_img1 = (img1Pixels[pos] >> 8) & 255;
-					int b_img1 = (img1Pixels[pos]) & 255;
+				
+                // calc gray value for 1st image
+				int r_img1 = (img1Pixels[pos] >> 16) & 255;
+				int g_img1 = (img1Pixels[pos] >> 8) & 255;
+				int b_img1 = (img1Pixels[pos]) & 255;
 
-					// calc gray value for 2nd image
-					int r_img2 = (img2Pixels[pos] >> 16) & 255;
-					int g_img2 = (img2Pixels[pos] >> 8) & 255;
-					int b_img2 = (img2Pixels[pos]) & 255;
+				// calc gray value for 2nd image
+				int r_img2 = (img2Pixels[pos] >> 16) & 255;
+				int g_img2 = (img2Pixels[pos] >> 8) & 255;
+				int b_img2 = (img2Pixels[pos]) & 255;
 
-					int r_diff = (r_img1 < r_img2) ? r_img2-r_img1 : r_img1-r_img2;
-					int g_diff = (g_img1 < g_img2) ? g_img2-g_img1 : g_img1-g_img2;
-					int b_diff = (b_img1 < b_img2) ? b_img2-b_img1 : b_img1-b_img2;
-					
-					// calc average difference and maximal difference
-					double meanColorDiff = (double)(r_diff+g_diff+b_diff) / 3;
-					
-					// pixel at the edge have a higher value
-					if(pdfEntryHolder instanceof PDFImageHolder)
-					{
-						double yDeviationToBorder = (double)((entryY+(entryHeight/2)) - y) / (entryHeight/2);
-						double xDeviationToBorder = (double)((entryX+(entryWidth/2)) - x) / (entryWidth/2);
-						double maxDeviation = ((yDeviationToBorder < xDeviationToBorder) ? xDeviationToBorder : yDeviationToBorder);
-						double sqrtDeviation = ((maxDeviation*10)*(maxDeviation*10))/10;
-						pixelImportance = 1 + sqrtDeviation;
-					}
-					
-					// count the different pixel
-					if(meanColorDiff > 5)
-						diffValue += 1 * pixelImportance;
-					
-					// calc L1 and L2 metric
-					diffValueL1 += meanColorDiff * pixelImportance;
-					diffValueL2 += (meanColorDiff * pixelImportance) * (meanColorDiff * pixelImportance);
+				int r_diff = (r_img1 < r_img2) ? r_img2-r_img1 : r_img1-r_img2;
+				int g_diff = (g_img1 < g_img2) ? g_img2-g_img1 : g_img1-g_img2;
+				int b_diff = (b_img1 < b_img2) ? b_img2-b_img1 : b_img1-b_img2;
+				
+				// calc average difference and maximal difference
+				double meanColorDiff = (double)(r_diff+g_diff+b_diff) / 3;
+				
+				// pixel at the edge have a higher value
+				if(isImage)
+				{
+					double yDeviationToBorder = (double)((entryY+(entryHeight/2)) - y) / (entryHeight/2);
+					double xDeviationToBorder = (double)((entryX+(entryWidth/2)) - x) / (entryWidth/2);
+					double maxDeviation = ((yDeviationToBorder < xDeviationToBorder) ? xDeviationToBorder : yDeviationToBorder);
+					double sqrtDeviation = ((maxDeviation*10)*(maxDeviation*10))/10;
+					pixelImportance = 1 + sqrtDeviation;
 				}
+				
+				// count the different pixel
+				if(meanColorDiff > PDFDifferenceMap.PIXEL_THRESHOLD)
+					diffValue += 1 * pixelImportance;
 			}
-			
-			// necessary calculation for L2 metric
-			diffValueL2 = (int)Math.sqrt(diffValueL2);
-			
-			// mark the entry holder as different, if the images
-			// at this position differ from each other
-			analyseDifference(diffValue, pdfEntryHolder, pageNum);
 		}
+		
+		return diffValue;
 	}
 	
 	/**
@@ -317,4 +1051,30 @@ public class PDFVisualComparator extends AbstractPDFCompare {
 		
 		entryHolder.setDifferent(isDifferent);
 	}
+	
+	/**
+	 * the rendered page of both documents and the elements to compare
+	 */
+	private static class RenderedPage
+	{
+		final int pageNum;
+		final PDFPage pagePDF1;
+		final PDFPage pagePDF2;
+		
+		// all elements of the page and those which needs a pixel check
+		Set<PDFEntryHolder> entryHolders;
+		Set<PDFEntryHolder> checkEntryHolders;
+		
+		// rendered tiles or null for the entire page
+		List<Rectangle> tiles;
+		BufferedImage pageImgPDF1;
+		BufferedImage pageImgPDF2;
+		
+		RenderedPage(int pageNum, PDFPage pagePDF1, PDFPage pagePDF2)
+		{
+			this.pageNum = pageNum;
+			this.pagePDF1 = pagePDF1;
+			this.pagePDF2 = pagePDF2;
+		}
+	}
 }
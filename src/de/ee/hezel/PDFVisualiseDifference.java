@@ -26,18 +26,29 @@ package de.ee.hezel;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
 
-import javax.imageio.ImageIO;
-
 import org.apache.log4j.Logger;
 
 import com.sun.pdfview.PDFFile;
@@ -48,7 +59,11 @@ import de.ee.hezel.model.PDFInfoHolder;
 import de.ee.hezel.model.PDFPageHolder;
 import de.ee.hezel.model.pdfelemente.PDFEntryHolder;
 import de.ee.hezel.model.pdfelemente.PDFImageHolder;
+import de.ee.hezel.model.pdfelemente.PDFRegionHolder;
 import de.ee.hezel.model.pdfelemente.PDFTextHolder;
+import de.ee.hezel.util.PNGWriter;
+import de.ee.hezel.util.RasterOps;
+import de.ee.hezel.util.RasterPool;
 
 /**
  * illustrates the difference of the 2 pdf documents
@@ -60,13 +75,25 @@ public class PDFVisualiseDifference extends AbstractPDFCompare {
 
 	static Colorize colorizer = new Colorize();
 	static Logger log = Logger.getLogger(PDFVisualiseDifference.class.getName());
+	static String newline = System.getProperty("line.separator");
 	
-	// a list of int arrays which gets reused
-    ThreadLocal<Map<Integer, intArray>> intarrays = new ThreadLocal<Map<Integer,intArray>>();
 	final static double IMAGE_SCALER = 2.1389;
+	
+	// cropped output: space around the different elements in points
+	static final int CROP_MARGIN = Integer.getInteger(PDFVisualiseDifference.class.getName() + ".CROP_MARGIN", 20);
+	
+	// cropped output: file with the page coordinates of all tiles of a document
+	static final String TILE_INDEX = "tiles.csv";
+	
 	private PDFInfoHolder pdfInfoHolder;
 	private File targetFolder;
 	
+	// save only cropped tiles around the differences instead of the entire page
+	private boolean croppedOutput;
+	
+	// the tile index of a previous run gets replaced by the first tile of this document
+	private boolean tileIndexCreated;
+	
 	public PDFVisualiseDifference(File outputDir, ICompareLogger diffLog, PDFInfoHolder pdfih)
 	{
 		setDifferenceLogger(diffLog);
@@ -116,8 +143,8 @@ public class PDFVisualiseDifference extends AbstractPDFCompare {
 					Set<PDFEntryHolder> entryHolders = new HashSet<PDFEntryHolder>(pdfPageHolder1.getElements());
 					entryHolders.addAll(pdfPageHolder2.getElements());
 			
-		            PDFPage pagePDF1 = pdf1.getPage(i);
-		            PDFPage pagePDF2 = pdf2.getPage(i);
+		            PDFPage pagePDF1 = pdf1.loadPage(i, PDFRenderCache.isEnabled());
+		            PDFPage pagePDF2 = pdf2.loadPage(i, PDFRenderCache.isEnabled());
 
 		            if(pagePDF1 == null || pagePDF2 == null)
 		            {
@@ -132,9 +159,7 @@ public class PDFVisualiseDifference extends AbstractPDFCompare {
 	                BufferedImage diffimg = visualiseDifferences(pageImgPDF1, pageImgPDF2, entryHolders);
 						
 					// save the result
-					String pathName = targetFolder+"/"+pdfInfoHolder.getFilename() + "_pdf/";
-					File dir = new File(pathName);  dir.mkdirs();		
-					ImageIO.write(diffimg, "PNG", new File(pathName+"page_"+i+".png"));
+	                saveDifferenceImage(diffimg, i, entryHolders, diffimg, pageImgPDF1, pageImgPDF2);
 				}
 				
 			} catch (Exception e) {
@@ -152,6 +177,9 @@ public class PDFVisualiseDifference extends AbstractPDFCompare {
 	 * If the content of an image is different the image gets 
 	 * a read rectangle. Different text elements get underlined red.
 	 * 
+	 * The difference image shares the pixels of the 1st image,
+	 * which gets overwritten.
+	 * 
 	 * @param pageImgPDF1
 	 * @param entryHolders
 	 * @throws IOException 
@@ -161,21 +189,17 @@ public class PDFVisualiseDifference extends AbstractPDFCompare {
 		int pageWidth = pageImgPDF1.getWidth();
 		int pageHeight = pageImgPDF1.getHeight();
 		
-		// 1-dimensional pixel array
-		int[] img1Pixels = getPixelArray(1, pageWidth*pageHeight); 
-		int[] img2Pixels = getPixelArray(2, pageWidth*pageHeight); 
-		int[] diffPixels = getPixelArray(3, pageWidth*pageHeight);
-		
-		// copy all pixels from the image to the pixel array
-		pageImgPDF1.getRGB(0, 0, pageWidth, pageHeight, img1Pixels, 0, pageWidth);
-		pageImgPDF2.getRGB(0, 0, pageWidth, pageHeight, img2Pixels, 0, pageWidth);
-		
-		// copy the image to the output pixel array
-		System.arraycopy(img1Pixels, 0, diffPixels, 0, pageWidth*pageHeight);
+		// 1-dimensional pixel array of the images, the differences
+		// get drawn directly into the pixels of the 1st image
+		int[] img1Pixels = getPixels(pageImgPDF1); 
+		int[] img2Pixels = getPixels(pageImgPDF2, pageWidth, pageHeight); 
 		
 		// output image
-		BufferedImage diffimg = new BufferedImage(pageWidth, pageHeight, BufferedImage.TYPE_INT_RGB);
+		BufferedImage diffimg = createRGBImage(img1Pixels, pageWidth, pageHeight);
 		
+		// boundaries of the different elements
+		List<Rectangle> entryBounds = new ArrayList<Rectangle>();
+		int minY = pageHeight, maxY = 0;
 		for (PDFEntryHolder pdfEntryHolder : entryHolders) 
 		{
 			// check if there are any differences
@@ -188,48 +212,22 @@ public class PDFVisualiseDifference extends AbstractPDFCompare {
 			int entryWidth = (int)(pdfEntryHolder.getWidth() * IMAGE_SCALER);
 			int entryHeight = (int)(pdfEntryHolder.getHeight() * IMAGE_SCALER);
 			
-			// draw pixel red or green, if the elements does not cover each other
-			for (int y = ((entryY < 0) ? 0 : entryY); y < entryY+entryHeight; y++) {
-                if (y*pageWidth >= img1Pixels.length) {
-                    log.error(pdfInfoHolder.getFilename()+": graphics boundaries exceed page boundaries. y=" + y + ", pageWidth=" + pageWidth);
-                    break;
-                }
-
-				for (int x = ((entryX < 0) ? 0 : entryX); x < entryX+entryWidth; x++) {
-					
-					// position in the 1d pixel array
-					int pos = y * pageWidth + x;
-
-                    if (pos >= img1Pixels.length) {
-                        log.error(pdfInfoHolder.getFilename()+": graphics boundaries exceed page boundaries. y=" + y + ", x=" + x + ", pageWidth=" + pageWidth);
-                        break;
-                    }
-                    
-                    // calc gray value for 1st image
-					int r_img1 = (img1Pixels[pos] >> 16) & 255;
-					int g_img1 = (img1Pixels[pos] >> 8) & 255;
-					int b_img1 = (img1Pixels[pos]) & 255;
-					int grey_img1 = (r_img1 + b_img1 + g_img1) / 3;
-
-					// calc gray value for 2nd image
-					int r_img2 = (img2Pixels[pos] >> 16) & 255;
-					int g_img2 = (img2Pixels[pos] >> 8) & 255;
-					int b_img2 = (img2Pixels[pos]) & 255;
-					int grey_img2 = (r_img2 + b_img2 + g_img2) / 3;
-				
-					int diff = (grey_img1<grey_img2) ? grey_img2-grey_img1 : grey_img1-grey_img2;
-					
-					// decide for red, green or nothing
-					if(diff > 5 && grey_img1 < grey_img2)
-						diffPixels[pos] = (0xFF << 24) | (0xFF << 16) | (grey_img1 << 8) | grey_img1;
-					else if(diff > 5 && grey_img1 > grey_img2)
-						diffPixels[pos] = (0xFF << 24) | (grey_img2 << 16) | (0xFF << 8) | grey_img2;
-				}
-			}
+            if (entryY+entryHeight > pageHeight)
+                log.error(pdfInfoHolder.getFilename()+": graphics boundaries exceed page boundaries. y=" + (entryY+entryHeight) + ", pageHeight=" + pageHeight);
+			
+			// the part inside of the page
+			Rectangle bounds = new Rectangle(entryX, entryY, entryWidth, entryHeight).intersection(new Rectangle(0, 0, pageWidth, pageHeight));
+			if(bounds.isEmpty())
+				continue;
+			
+			entryBounds.add(bounds);
+			minY = Math.min(minY, bounds.y);
+			maxY = Math.max(maxY, bounds.y + bounds.height);
 		}
 		
-		// save the result in an image
-		diffimg.setRGB(0, 0, pageWidth, pageHeight, diffPixels, 0, pageWidth);
+		// draw pixel red or green, if the elements does not cover each other.
+		// the pixels are changed in place, every pixel is visited only once.
+		RasterOps.markDifferences(img1Pixels, img2Pixels, pageWidth, entryBounds, minY, maxY, 5);
 		
 		// draw a red rectangle around images or underline 
 		// differences in text elements red
@@ -247,7 +245,7 @@ public class PDFVisualiseDifference extends AbstractPDFCompare {
 			int entryHeight = (int)(pdfEntryHolder.getHeight() * IMAGE_SCALER);
 			
 			// draw rectangle
-			if(pdfEntryHolder instanceof PDFImageHolder)
+			if(pdfEntryHolder instanceof PDFImageHolder || pdfEntryHolder instanceof PDFRegionHolder)
 				g.drawRect(entryX, entryY, entryWidth, entryHeight);
 			// underline text
 			else if(pdfEntryHolder instanceof PDFTextHolder)
@@ -259,6 +257,118 @@ public class PDFVisualiseDifference extends AbstractPDFCompare {
 		return diffimg;
 	}
 	
+	/**
+	 * Save the difference image of the page in the target folder. Afterwards
+	 * the images to release are returned to the raster pool.
+	 * 
+	 * In the cropped output mode only the areas around the different elements 
+	 * are saved, each in its own tile. The page coordinates of the tiles 
+	 * are listed in the index file of the document.
+	 * 
+	 * @param diffimg
+	 * @param pageNum
+	 * @param entryHolders elements of the page or null if the entire page is different
+	 * @param release images which are not needed anymore
+	 * @throws IOException
+	 */
+	public void saveDifferenceImage(BufferedImage diffimg, int pageNum, Collection<PDFEntryHolder> entryHolders, BufferedImage... release) throws IOException
+	{
+		String pathName = targetFolder + "/" + pdfInfoHolder.getFilename() + "_pdf/";
+		File dir = new File(pathName);
+		dir.mkdirs();
+		
+		// the entire page
+		List<Rectangle> crops = (croppedOutput && entryHolders != null) ? findCrops(entryHolders, diffimg.getWidth(), diffimg.getHeight()) : null;
+		if(crops == null || crops.isEmpty())
+		{
+			PNGWriter.write(diffimg, new File(pathName + "page_" + pageNum + ".png"), release);
+			return;
+		}
+		
+		try {
+			DecimalFormat df = new DecimalFormat( "####.###" );
+			StringBuilder index = new StringBuilder();
+			for (int i = 0; i < crops.size(); i++) 
+			{
+				// copy the tile, the page images get released right away
+				Rectangle crop = crops.get(i);
+				BufferedImage tile = new BufferedImage(crop.width, crop.height, BufferedImage.TYPE_INT_RGB);
+				Graphics g = tile.getGraphics();
+				g.drawImage(diffimg, 0, 0, crop.width, crop.height, crop.x, crop.y, crop.x + crop.width, crop.y + crop.height, null);
+				g.dispose();
+				
+				String fileName = "page_" + pageNum + "_tile_" + (i + 1) + ".png";
+				PNGWriter.write(tile, new File(pathName + fileName));
+				
+				// position and size in the page space
+				index.append(fileName).append(';').append(pageNum).append(';')
+					.append(df.format(crop.x / IMAGE_SCALER)).append(';').append(df.format(crop.y / IMAGE_SCALER)).append(';')
+					.append(df.format(crop.width / IMAGE_SCALER)).append(';').append(df.format(crop.height / IMAGE_SCALER)).append(newline);
+			}
+			
+			// pages of a document are saved one after another
+			synchronized (this) {
+				File indexFile = new File(pathName + TILE_INDEX);
+				Writer writer = new OutputStreamWriter(new FileOutputStream(indexFile, tileIndexCreated), "UTF-8");
+				try {
+					if(!tileIndexCreated)
+						writer.write("tile;page;x;y;width;height" + newline);
+					tileIndexCreated = true;
+					writer.write(index.toString());
+				} finally {
+					writer.close();
+				}
+			}
+		} finally {
+			RasterPool.releaseAll(release);
+		}
+	}
+	
+	/**
+	 * Areas around the different elements, overlapping areas are merged.
+	 * 
+	 * @param entryHolders
+	 * @param pageWidth
+	 * @param pageHeight
+	 * @return areas in pixel coordinates of the page image
+	 */
+	private List<Rectangle> findCrops(Collection<PDFEntryHolder> entryHolders, int pageWidth, int pageHeight)
+	{
+		int margin = (int) (CROP_MARGIN * IMAGE_SCALER);
+		Rectangle page = new Rectangle(0, 0, pageWidth, pageHeight);
+		
+		List<Rectangle> crops = new ArrayList<Rectangle>();
+		for (PDFEntryHolder pdfEntryHolder : entryHolders) 
+		{
+			if(!pdfEntryHolder.isDifferent())
+				continue;
+			
+			// dimension of the entry holder with the current zoom factor and the margin
+			Rectangle crop = new Rectangle((int)(pdfEntryHolder.getX() * IMAGE_SCALER) - margin, (int)(pdfEntryHolder.getY() * IMAGE_SCALER) - margin, 
+					(int)(pdfEntryHolder.getWidth() * IMAGE_SCALER) + 2 * margin, (int)(pdfEntryHolder.getHeight() * IMAGE_SCALER) + 2 * margin);
+			crop = crop.intersection(page);
+			if(crop.isEmpty())
+				continue;
+			
+			// merge with all overlapping areas
+			for (int i = 0; i < crops.size(); i++) 
+			{
+				if(crops.get(i).intersects(crop))
+				{
+					crop = crop.union(crops.remove(i));
+					i = -1;
+				}
+			}
+			crops.add(crop);
+		}
+		
+		return crops;
+	}
+	
+	public void setCroppedOutput(boolean croppedOutput) {
+		this.croppedOutput = croppedOutput;
+	}
+	
 	public BufferedImage drawPageInRed(PDFPage pagePDF)
 	{
 		// convert the page in a image
@@ -292,6 +402,96 @@ public class PDFVisualiseDifference extends AbstractPDFCompare {
 	 * @throws IllegalArgumentException
 	 */
 	public static BufferedImage convertPage(PDFPage page) throws IllegalArgumentException {
+			return convertPage(page, IMAGE_SCALER);
+	}
+	
+	/**
+	 * convert the page into an image with the given zoom factor
+	 * 
+	 * @param page
+	 * @param scaler
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public static BufferedImage convertPage(PDFPage page, double scaler) throws IllegalArgumentException {
+			return convertPage(page, scaler, BufferedImage.TYPE_INT_ARGB);
+	}
+	
+	/**
+	 * convert the page into an image with the given zoom factor and image type
+	 * 
+	 * @param page
+	 * @param scaler
+	 * @param imageType TYPE_INT_ARGB or TYPE_BYTE_GRAY
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public static BufferedImage convertPage(PDFPage page, double scaler, int imageType) throws IllegalArgumentException {
+
+			// get the width and height for the doc at the default zoom
+			Rectangle rect = new Rectangle(0, 0, (int) page.getBBox().getWidth(), (int) page.getBBox().getHeight());
+			
+			int pageWidth = (int) (rect.width * scaler);
+			int pageHeight = (int) (rect.height * scaler);
+			
+			return renderPage(page, pageWidth, pageHeight, rect, imageType);
+	}
+	
+	/**
+	 * Convert the page into an image or load it from the store 
+	 * of the document. New page images get stored.
+	 * 
+	 * @param page
+	 * @param scaler
+	 * @param imageType TYPE_INT_ARGB or TYPE_BYTE_GRAY
+	 * @param store of the document, can be null
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public static BufferedImage convertPage(PDFPage page, double scaler, int imageType, PDFRasterStore store) throws IllegalArgumentException {
+			if(store == null)
+				return convertPage(page, scaler, imageType);
+			
+			int pageWidth = (int) ((int) page.getBBox().getWidth() * scaler);
+			int pageHeight = (int) ((int) page.getBBox().getHeight() * scaler);
+			
+			BufferedImage bImg = store.load(page.getPageNumber(), pageWidth, pageHeight, imageType);
+			if(bImg == null)
+			{
+				bImg = convertPage(page, scaler, imageType);
+				store.save(page.getPageNumber(), bImg, imageType);
+			}
+			
+			return bImg;
+	}
+	
+	/**
+	 * Convert only some tiles of the page into an image, the 
+	 * rest of the image stays white. The image has the same size
+	 * as the one of convertPage and the tiles are given in its 
+	 * pixel coordinates.
+	 * 
+	 * Only for pages without rotation.
+	 * 
+	 * @param page
+	 * @param tiles
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public static BufferedImage convertTiles(PDFPage page, List<Rectangle> tiles) throws IllegalArgumentException {
+			return convertTiles(page, tiles, BufferedImage.TYPE_INT_ARGB);
+	}
+	
+	/**
+	 * Convert only some tiles of the page into an image of the given type.
+	 * 
+	 * @param page
+	 * @param tiles
+	 * @param imageType TYPE_INT_ARGB or TYPE_BYTE_GRAY
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public static BufferedImage convertTiles(PDFPage page, List<Rectangle> tiles, int imageType) throws IllegalArgumentException {
 
 			// get the width and height for the doc at the default zoom
 			Rectangle rect = new Rectangle(0, 0, (int) page.getBBox().getWidth(), (int) page.getBBox().getHeight());
@@ -299,47 +499,162 @@ public class PDFVisualiseDifference extends AbstractPDFCompare {
 			int pageWidth = (int) (rect.width * IMAGE_SCALER);
 			int pageHeight = (int) (rect.height * IMAGE_SCALER);
 			
-			BufferedImage bImg = (BufferedImage) page.getImage(pageWidth, pageHeight, // width & height
-					rect, // clip rect
-					null, // null for the ImageObserver
-					true, // fill background with white
-					true // block until drawing is done
-					);
+			// real zoom factor of the page image
+			double scaleX = (double) pageWidth / rect.width;
+			double scaleY = (double) pageHeight / rect.height;
+			
+			BufferedImage bImg = leaseImage(pageWidth, pageHeight, imageType);
+			Graphics g = bImg.getGraphics();
+			g.setColor(Color.WHITE);
+			g.fillRect(0, 0, pageWidth, pageHeight);
+			
+			for (Rectangle tile : tiles) 
+			{
+				// the tile in page space, whose y axis points upwards
+				Rectangle2D clip = new Rectangle2D.Double(tile.x / scaleX, rect.height - (tile.y + tile.height) / scaleY, 
+						tile.width / scaleX, tile.height / scaleY);
+				
+				BufferedImage tileImg = renderPage(page, tile.width, tile.height, clip, imageType);
+				g.drawImage(tileImg, tile.x, tile.y, null);
+				RasterPool.release(tileImg);
+			}
+			g.dispose();
 			
 			return bImg;
 	}
 	
 	/**
-	 * reuse the allocated memory 
+	 * Render the clip of the page into an image of the raster pool with a white 
+	 * background. The image is not shared with the image cache of the page and 
+	 * can be changed.
 	 * 
-	 * @param arraynumber
-	 * @param arraysize
+	 * @param page
+	 * @param width
+	 * @param height
+	 * @param clip in page space
+	 * @param imageType TYPE_INT_ARGB or TYPE_BYTE_GRAY
 	 * @return
 	 */
-	public int[] getPixelArray(int arraynumber, int arraysize)
+	private static BufferedImage renderPage(PDFPage page, int width, int height, Rectangle2D clip, int imageType)
 	{
-	    Map<Integer, intArray> map = intarrays.get();
-	    if (null == map) {
-	        map = new HashMap<Integer, PDFVisualiseDifference.intArray>(3);
-            intarrays.set(map);
-	    }
-		if(!map.containsKey(arraynumber))
-			map.put(arraynumber, new intArray(arraysize));
-			
-		intArray intarr = map.get(arraynumber);
-			
-		if(intarr.arr.length != arraysize)
-			intarr.arr = new int[arraysize];
+		// the same page has been rendered before
+		String key = PDFRenderCache.getKey(page, width, height, clip, imageType);
+		BufferedImage bImg = PDFRenderCache.get(key);
+		if(bImg != null)
+			return bImg;
+		
+		bImg = leaseImage(width, height, imageType);
 		
-		return intarr.arr;
+		// render in this thread without the image cache of the page
+		page.renderImage(bImg, clip, Color.WHITE);
+		
+		PDFRenderCache.put(key, bImg);
+		return bImg;
+	}
+	
+	/**
+	 * Image of the raster pool with the given type.
+	 * 
+	 * @param width
+	 * @param height
+	 * @param imageType TYPE_INT_ARGB or TYPE_BYTE_GRAY
+	 * @return
+	 */
+	private static BufferedImage leaseImage(int width, int height, int imageType)
+	{
+		if(imageType == BufferedImage.TYPE_BYTE_GRAY)
+			return RasterPool.leaseGrayImage(width, height);
+		
+		return RasterPool.leaseImage(width, height);
 	}
 	
-	public class intArray
+	/**
+	 * Get the pixels of the image as 1-dimensional array. Images with one 
+	 * int per pixel return their own data, changes affect the image.
+	 * All other images return a copy of their pixels.
+	 * 
+	 * @param img
+	 * @return
+	 */
+	public static int[] getPixels(BufferedImage img)
 	{
-		public int[] arr;
-		public intArray(int size)
+		if(img.getType() == BufferedImage.TYPE_INT_ARGB || img.getType() == BufferedImage.TYPE_INT_RGB)
 		{
-			arr = new int[size];
+			WritableRaster raster = img.getRaster();
+			if(raster.getParent() == null && raster.getSampleModel() instanceof SinglePixelPackedSampleModel 
+					&& ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride() == img.getWidth())
+			{
+				DataBufferInt dataBuffer = (DataBufferInt) raster.getDataBuffer();
+				if(dataBuffer.getNumBanks() == 1 && dataBuffer.getOffset() == 0)
+					return dataBuffer.getData();
+			}
 		}
+		
+		return img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+	}
+	
+	/**
+	 * Get the pixels of the image in the layout of an image with the given 
+	 * size. Pixels outside of the image are white. Images of the given size
+	 * return their own data (see getPixels), others a copy.
+	 * 
+	 * @param img
+	 * @param width
+	 * @param height
+	 * @return
+	 */
+	public static int[] getPixels(BufferedImage img, int width, int height)
+	{
+		if(img.getWidth() == width && img.getHeight() == height)
+			return getPixels(img);
+		
+		int[] pixels = new int[width * height];
+		Arrays.fill(pixels, 0xFFFFFFFF);
+		
+		int w = Math.min(width, img.getWidth());
+		int h = Math.min(height, img.getHeight());
+		if(w > 0 && h > 0)
+			img.getRGB(0, 0, w, h, pixels, 0, width);
+		return pixels;
+	}
+	
+	/**
+	 * Get the gray values of a TYPE_BYTE_GRAY image as 1-dimensional array. 
+	 * The values are the own data of the image.
+	 * 
+	 * @param img
+	 * @return gray values or null if the image has another type or layout
+	 */
+	public static byte[] getGrayPixels(BufferedImage img)
+	{
+		if(img.getType() != BufferedImage.TYPE_BYTE_GRAY)
+			return null;
+		
+		WritableRaster raster = img.getRaster();
+		if(raster.getParent() != null || !(raster.getSampleModel() instanceof PixelInterleavedSampleModel))
+			return null;
+		
+		PixelInterleavedSampleModel sampleModel = (PixelInterleavedSampleModel) raster.getSampleModel();
+		DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+		if(sampleModel.getScanlineStride() != img.getWidth() || sampleModel.getPixelStride() != 1 
+				|| sampleModel.getBandOffsets()[0] != 0 || dataBuffer.getNumBanks() != 1 || dataBuffer.getOffset() != 0)
+			return null;
+		
+		return dataBuffer.getData();
+	}
+	
+	/**
+	 * Create a TYPE_INT_RGB image around the given pixels, without copying them.
+	 * 
+	 * @param pixels
+	 * @param width
+	 * @param height
+	 * @return
+	 */
+	public static BufferedImage createRGBImage(int[] pixels, int width, int height)
+	{
+		DirectColorModel colorModel = new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+		WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(pixels, width * height), width, height, width, colorModel.getMasks(), null);
+		return new BufferedImage(colorModel, raster, false, null);
 	}
 }
@@ -0,0 +1,255 @@
+/*
+* JSONResultLogger
+* 
+* Copyright (c) 2012, E&E information consultants AG. All rights reserved.
+* Authors:
+*   Peter Jentsch
+*   Nico Hezel
+*   
+* This library is free software; you can redistribute it and/or
+* modify it under the terms of the GNU Lesser General Public
+* License as published by the Free Software Foundation; either
+* version 2.1 of the License, or (at your option) any later version.
+*
+* This library is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this library; if not, write to the Free Software
+* Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+* MA 02110-1301 USA
+*/
+package de.ee.hezel.logger;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import de.ee.hezel.model.PDFHolder;
+import de.ee.hezel.model.PDFInfoHolder;
+import de.ee.hezel.model.PDFPageHolder;
+import de.ee.hezel.model.pdfelemente.PDFEntryHolder;
+import de.ee.hezel.model.pdfelemente.PDFImageHolder;
+import de.ee.hezel.model.pdfelemente.PDFRegionHolder;
+import de.ee.hezel.model.pdfelemente.PDFTextHolder;
+
+/**
+ * Writes the results of all compare jobs as JSON Lines file,
+ * one record for every document pair and every different page.
+ * 
+ * The records are created by the compare jobs and written in 
+ * the order they arrive by a single background thread.
+ * 
+ * document record: {"record":"document","file":..,"difference":..,"pages":[..],"durationMs":..}
+ * page record: {"record":"page","file":..,"page":..,"elements":[{"document":..,"type":..,"x":..,"y":..,"width":..,"height":..,"text":..}]}
+ * 
+ * Pages start with 1, the element boxes are given in points.
+ * 
+ * @author hezeln
+ *
+ */
+public class JSONResultLogger {
+
+	static Logger log = Logger.getLogger(JSONResultLogger.class.getName());
+	// JSON Lines are always separated by a line feed
+	static String newline = "\n";
+	
+	private final Writer writer;
+	private final ExecutorService executor;
+	
+	public JSONResultLogger(File file) throws IOException
+	{
+		writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, JSONResultLogger.class.getSimpleName());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	/**
+	 * Create the records of the compared documents 
+	 * and write them in the background.
+	 * 
+	 * @param pdfInfoHolder
+	 * @param durationMs time needed for the comparison
+	 */
+	public void logResult(PDFInfoHolder pdfInfoHolder, long durationMs)
+	{
+		StringBuilder records = new StringBuilder();
+		// candidates of a shared reference are told apart by their directory
+		String file = quote((pdfInfoHolder.getReference() == null) ? pdfInfoHolder.getFilename() 
+				: pdfInfoHolder.getPDFFile2().getParentFile().getName() + "/" + pdfInfoHolder.getFilename());
+		PDFHolder pdfStructure1 = pdfInfoHolder.getPDFStructure1();
+		PDFHolder pdfStructure2 = pdfInfoHolder.getPDFStructure2();
+		
+		// different pages and their elements
+		StringBuilder pages = new StringBuilder();
+		if(pdfStructure1 != null && pdfStructure2 != null)
+		{
+			for (PDFPageHolder pdfPageHolder1 : pdfStructure1.getPageHolders()) 
+			{
+				PDFPageHolder pdfPageHolder2 = pdfStructure2.getPageHolder(pdfPageHolder1.getPageNumber());
+				if(!pdfPageHolder1.isDifferent() && (pdfPageHolder2 == null || !pdfPageHolder2.isDifferent()))
+					continue;
+				
+				int pageNum = pdfPageHolder1.getPageNumber() + 1;
+				if(pages.length() > 0)
+					pages.append(',');
+				pages.append(pageNum);
+				
+				StringBuilder elements = new StringBuilder();
+				appendElements(elements, pdfPageHolder1, 1);
+				if(pdfPageHolder2 != null)
+					appendElements(elements, pdfPageHolder2, 2);
+				
+				records.append("{\"record\":\"page\",\"file\":").append(file)
+					.append(",\"page\":").append(pageNum)
+					.append(",\"elements\":[").append(elements).append("]}").append(newline);
+			}
+		}
+		
+		// the document record comes first
+		records.insert(0, new StringBuilder().append("{\"record\":\"document\",\"file\":").append(file)
+			.append(",\"difference\":").append(quote(pdfInfoHolder.getDifferent().name()))
+			.append(",\"pages\":[").append(pages).append(']')
+			.append(",\"durationMs\":").append(durationMs).append('}').append(newline));
+		
+		write(records.toString());
+	}
+	
+	/**
+	 * append the different elements of the page
+	 * 
+	 * @param elements
+	 * @param pdfPageHolder
+	 * @param document 1 or 2
+	 */
+	private void appendElements(StringBuilder elements, PDFPageHolder pdfPageHolder, int document)
+	{
+		for (PDFEntryHolder pdfEntryHolder : pdfPageHolder.getElements()) 
+		{
+			if(!pdfEntryHolder.isDifferent())
+				continue;
+			
+			if(elements.length() > 0)
+				elements.append(',');
+			elements.append("{\"document\":").append(document)
+				.append(",\"type\":").append(quote(getType(pdfEntryHolder)))
+				.append(",\"x\":").append(format(pdfEntryHolder.getX()))
+				.append(",\"y\":").append(format(pdfEntryHolder.getY()))
+				.append(",\"width\":").append(format(pdfEntryHolder.getWidth()))
+				.append(",\"height\":").append(format(pdfEntryHolder.getHeight()));
+			if(pdfEntryHolder instanceof PDFTextHolder)
+				elements.append(",\"text\":").append(quote(String.valueOf(((PDFTextHolder) pdfEntryHolder).getText())));
+			elements.append('}');
+		}
+	}
+	
+	private static String getType(PDFEntryHolder pdfEntryHolder)
+	{
+		if(pdfEntryHolder instanceof PDFTextHolder)
+			return "text";
+		if(pdfEntryHolder instanceof PDFImageHolder)
+			return "image";
+		if(pdfEntryHolder instanceof PDFRegionHolder)
+			return "region";
+		return "element";
+	}
+	
+	/**
+	 * number with 3 decimal places and a dot
+	 * 
+	 * @param value
+	 * @return
+	 */
+	private static String format(double value)
+	{
+		if(Double.isNaN(value) || Double.isInfinite(value))
+			return "null";
+		
+		return String.format(Locale.ROOT, "%.3f", value);
+	}
+	
+	/**
+	 * JSON string with escaped characters
+	 * 
+	 * @param value
+	 * @return
+	 */
+	private static String quote(String value)
+	{
+		StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+		for (int i = 0; i < value.length(); i++) 
+		{
+			char c = value.charAt(i);
+			switch (c) {
+				case '"': sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				case '\t': sb.append("\\t"); break;
+				default:
+					if(c < 0x20)
+						sb.append(String.format("\\u%04x", (int) c));
+					else
+						sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+	
+	/**
+	 * write the records in the background
+	 * 
+	 * @param records
+	 */
+	private void write(final String records)
+	{
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					writer.write(records);
+					writer.flush();
+				} catch (IOException e) {
+					log.error("Unable to write the JSON results: " + e.getMessage(), e);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Wait until all records are written and close the file.
+	 */
+	public void close()
+	{
+		executor.shutdown();
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		
+		try {
+			writer.close();
+		} catch (IOException e) {
+			log.error("Unable to close the JSON results: " + e.getMessage(), e);
+		}
+	}
+}
@@ -66,6 +66,20 @@ public class PDFHolder {
 	
 
 
+	/**
+	 * Copy of the document structure without any differences,
+	 * the copy can be changed by a comparison.
+	 * 
+	 * @return
+	 */
+	public PDFHolder copy()
+	{
+		PDFHolder copy = new PDFHolder(numberOfPages);
+		for (PDFPageHolder pageHolder : pageHolders.values())
+			copy.addPageHolders(pageHolder.copy());
+		return copy;
+	}
+	
 	public boolean isDifferent() {
 		return isDifferent;
 	}
@@ -30,6 +30,8 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 
@@ -58,15 +60,22 @@ public class PDFInfoHolder
 	
 	private DifferenceType difference;
 	
+	// pages (starting with 0) which are byte-identical in both documents
+	private Set<Integer> unchangedPages;
+	
 	// memory demanding resources
 	private PDFFile pdf1;
 	private PDFFile pdf2;
 	
+	// reference document shared with other comparisons, can be null
+	private PDFReference reference;
+	
 	public PDFInfoHolder(File pdfF1, File pdfF2)
 	{
 		this.pdfFile1 = pdfF1;
 		this.pdfFile2 = pdfF2;
 		this.difference = DifferenceType.NONE;
+		this.unchangedPages = Collections.emptySet();
 	}
 	
 	public void loadPDFFiles() throws Exception
@@ -198,6 +207,35 @@ public class PDFInfoHolder
 	}
 
 
+	/**
+	 * is the page identical in both pdf documents, because 
+	 * none of its objects was changed by an incremental update
+	 * 
+	 * @param pageNumber starting with 0
+	 * @return
+	 */
+	/**
+	 * the reference document (1st pdf) is shared 
+	 * with the comparisons of other candidates
+	 * 
+	 * @return reference or null
+	 */
+	public PDFReference getReference() {
+		return reference;
+	}
+	
+	public void setReference(PDFReference reference) {
+		this.reference = reference;
+	}
+	
+	public boolean isUnchangedPage(int pageNumber) {
+		return unchangedPages.contains(pageNumber);
+	}
+	
+	public void setUnchangedPages(Set<Integer> unchangedPages) {
+		this.unchangedPages = unchangedPages;
+	}
+
 	public DifferenceType getDifferent() {
 		return difference;
 	}
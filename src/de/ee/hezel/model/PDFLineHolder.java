@@ -0,0 +1,63 @@
+/*
+* PDFLineHolder
+*
+* Copyright (c) 2012, E&E information consultants AG. All rights reserved.
+* Authors:
+*   Peter Jentsch
+*   Nico Hezel
+*
+* This library is free software; you can redistribute it and/or
+* modify it under the terms of the GNU Lesser General Public
+* License as published by the Free Software Foundation; either
+* version 2.1 of the License, or (at your option) any later version.
+*
+* This library is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this library; if not, write to the Free Software
+* Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+* MA 02110-1301 USA
+*/
+package de.ee.hezel.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.ee.hezel.model.pdfelemente.PDFTextHolder;
+
+/**
+ * meta data holder for a single text line of a pdf page
+ *
+ * The words of the line are also part of the page elements,
+ * this holder only remembers which of them belong together.
+ *
+ * @author hezeln
+ *
+ */
+public class PDFLineHolder {
+
+	private List<PDFTextHolder> words;
+
+	public PDFLineHolder()
+	{
+		this.words = new ArrayList<PDFTextHolder>();
+	}
+
+	public void addWord(PDFTextHolder word)
+	{
+		this.words.add(word);
+	}
+
+	public List<PDFTextHolder> getWords()
+	{
+		return this.words;
+	}
+
+	public boolean isEmpty()
+	{
+		return this.words.isEmpty();
+	}
+}
@@ -23,10 +23,15 @@
 */
 package de.ee.hezel.model;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import de.ee.hezel.model.pdfelemente.PDFEntryHolder;
+import de.ee.hezel.model.pdfelemente.PDFTextHolder;
 
 /**
  * meta data holder for a single pdf page
@@ -42,6 +47,8 @@ public class PDFPageHolder {
 	private boolean isDifferent;
 	
 	private Set<PDFEntryHolder> pdfElements;
+	private List<PDFLineHolder> pdfLines;
+	private PDFRegionTree regionTree;
 
 	public PDFPageHolder(int pageNumber, float pageWidth, float pageHeight)
 	{
@@ -50,6 +57,7 @@ public class PDFPageHolder {
 		this.pageNumber = pageNumber;
 		this.isDifferent = false;
 		this.pdfElements = new HashSet<PDFEntryHolder>();
+		this.pdfLines = new ArrayList<PDFLineHolder>();
 	}
 	
 	public int getPageNumber() {
@@ -92,16 +100,77 @@ public class PDFPageHolder {
 	{
 		e.setPDFPageHolder(this);
 		this.pdfElements.add(e);
+		this.regionTree = null;
 	}
 	
 	public void removeElement(PDFEntryHolder e)
 	{
 		e.setPDFPageHolder(null);
 		this.pdfElements.remove(e);
+		this.regionTree = null;
+	}
+	
+	/**
+	 * Copy of the page and its elements and lines, 
+	 * without any differences.
+	 * 
+	 * @return
+	 */
+	public PDFPageHolder copy()
+	{
+		PDFPageHolder copy = new PDFPageHolder(pageNumber, pageWidth, pageHeight);
+		
+		Map<PDFEntryHolder, PDFEntryHolder> copies = new IdentityHashMap<PDFEntryHolder, PDFEntryHolder>();
+		for (PDFEntryHolder element : pdfElements) 
+		{
+			PDFEntryHolder elementCopy = element.copy();
+			copies.put(element, elementCopy);
+			copy.addElement(elementCopy);
+		}
+		
+		for (PDFLineHolder line : pdfLines) 
+		{
+			PDFLineHolder lineCopy = new PDFLineHolder();
+			for (PDFTextHolder word : line.getWords())
+				lineCopy.addWord((PDFTextHolder) copies.get(word));
+			copy.addLine(lineCopy);
+		}
+		
+		return copy;
+	}
+	
+	/**
+	 * hierarchical hash of the page elements,
+	 * gets created on first use
+	 * 
+	 * @return
+	 */
+	public synchronized PDFRegionTree getRegionTree()
+	{
+		if(this.regionTree == null)
+			this.regionTree = new PDFRegionTree(this);
+		
+		return this.regionTree;
 	}
 	
 	public Set<PDFEntryHolder> getElements()
 	{
 		return this.pdfElements;
 	}
+	
+	/**
+	 * the words of the line needs to be added 
+	 * as elements of this page as well
+	 * 
+	 * @param line
+	 */
+	public void addLine(PDFLineHolder line)
+	{
+		this.pdfLines.add(line);
+	}
+	
+	public List<PDFLineHolder> getLines()
+	{
+		return this.pdfLines;
+	}
 }
@@ -0,0 +1,87 @@
+/*
+* PDFReference
+* 
+* Copyright (c) 2012, E&E information consultants AG. All rights reserved.
+* Authors:
+*   Peter Jentsch
+*   Nico Hezel
+*   
+* This library is free software; you can redistribute it and/or
+* modify it under the terms of the GNU Lesser General Public
+* License as published by the Free Software Foundation; either
+* version 2.1 of the License, or (at your option) any later version.
+*
+* This library is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this library; if not, write to the Free Software
+* Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+* MA 02110-1301 USA
+*/
+package de.ee.hezel.model;
+
+import java.io.File;
+
+/**
+ * A reference document, which gets compared with several candidates.
+ * 
+ * The structure of the reference is analysed once and shared by all 
+ * comparisons. It is never changed, every comparison works on its own 
+ * copy. The structure gets dropped after the last comparison is done.
+ * 
+ * @author hezeln
+ *
+ */
+public class PDFReference {
+
+	private final File pdfFile;
+	
+	// structure of all pages, null until the first comparison needs it
+	private PDFHolder structure;
+	
+	// comparisons which are not done yet
+	private int openComparisons;
+	
+	public PDFReference(File pdfFile)
+	{
+		this.pdfFile = pdfFile;
+	}
+	
+	public File getPDFFile() {
+		return pdfFile;
+	}
+	
+	/**
+	 * The shared structure, which must not be changed. 
+	 * The callers synchronize on this reference to 
+	 * analyse the structure only once.
+	 * 
+	 * @return structure or null if it was not analysed yet
+	 */
+	public synchronized PDFHolder getStructure() {
+		return structure;
+	}
+	
+	public synchronized void setStructure(PDFHolder structure) {
+		this.structure = structure;
+	}
+	
+	/**
+	 * a comparison with this reference is planned
+	 */
+	public synchronized void addComparison() {
+		openComparisons++;
+	}
+	
+	/**
+	 * A comparison with this reference is done, 
+	 * after the last one the structure is dropped. 
+	 */
+	public synchronized void releaseComparison() {
+		if(--openComparisons <= 0)
+			structure = null;
+	}
+}
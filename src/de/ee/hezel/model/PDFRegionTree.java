@@ -0,0 +1,237 @@
+/*
+* PDFRegionTree
+*
+* Copyright (c) 2012, E&E information consultants AG. All rights reserved.
+* Authors:
+*   Peter Jentsch
+*   Nico Hezel
+*
+* This library is free software; you can redistribute it and/or
+* modify it under the terms of the GNU Lesser General Public
+* License as published by the Free Software Foundation; either
+* version 2.1 of the License, or (at your option) any later version.
+*
+* This library is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this library; if not, write to the Free Software
+* Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+* MA 02110-1301 USA
+*/
+package de.ee.hezel.model;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import de.ee.hezel.model.pdfelemente.PDFEntryHolder;
+import de.ee.hezel.model.pdfelemente.PDFTextHolder;
+import de.ee.hezel.util.WordDictionary;
+
+/**
+ * Hierarchical hash of the elements of a pdf page (merkle quadtree).
+ *
+ * The page gets divided into a quadtree of regions. Every element is stored
+ * in the smallest region which contains it completely. Each region has a
+ * hash of its own elements (text, quantised box) and a hash combining its
+ * own hash with the ones of its sub regions.
+ *
+ * Comparing two trees top-down skips every identical sub tree at once and
+ * finds the unchanged elements without looking at them one by one.
+ *
+ * @author hezeln
+ *
+ */
+public class PDFRegionTree {
+
+	// depth of the tree, 5 levels = 256 regions at the bottom
+	static final int DEPTH = 5;
+
+	// positions are compared in steps of 1/1000 pt
+	static final double POSITION_QUANTUM = 0.001;
+
+	private final float pageWidth;
+	private final float pageHeight;
+	private final Region root;
+
+	public PDFRegionTree(PDFPageHolder pdfPageHolder)
+	{
+		this.pageWidth = pdfPageHolder.getPageWidth();
+		this.pageHeight = pdfPageHolder.getPageHeight();
+		this.root = new Region(0, 0, pageWidth, pageHeight, DEPTH);
+
+		// elements which can not be hashed reliable (e.g. broken text
+		// elements) are left out, they are never unchanged
+		for (PDFEntryHolder pdfEntryHolder : pdfPageHolder.getElements())
+		{
+			if(pdfEntryHolder.getWidth() > 0 && pdfEntryHolder.getHeight() > 1)
+				root.add(pdfEntryHolder, elementHash(pdfEntryHolder));
+		}
+
+		root.calcHash();
+	}
+
+	/**
+	 * Find all elements of this tree, which have an identical
+	 * counterpart in the same region of the other tree.
+	 *
+	 * @param other tree of the page to compare with
+	 * @return unchanged elements of this page
+	 */
+	public Set<PDFEntryHolder> findUnchangedElements(PDFRegionTree other)
+	{
+		Set<PDFEntryHolder> unchanged = new HashSet<PDFEntryHolder>();
+
+		// different page sizes have a different region layout
+		if(other == null || pageWidth != other.pageWidth || pageHeight != other.pageHeight)
+			return unchanged;
+
+		collectUnchanged(root, other.root, unchanged);
+
+		return unchanged;
+	}
+
+	private void collectUnchanged(Region region, Region otherRegion, Set<PDFEntryHolder> unchanged)
+	{
+		// identical sub tree
+		if(region.treeHash == otherRegion.treeHash)
+		{
+			region.collectElements(unchanged);
+			return;
+		}
+
+		if(region.ownHash == otherRegion.ownHash)
+			unchanged.addAll(region.elements);
+
+		if(region.children != null)
+			for (int i = 0; i < region.children.length; i++)
+				collectUnchanged(region.children[i], otherRegion.children[i], unchanged);
+	}
+
+	/**
+	 * hash of the element type, text and quantised box
+	 *
+	 * @param pdfEntryHolder
+	 * @return
+	 */
+	private long elementHash(PDFEntryHolder pdfEntryHolder)
+	{
+		long h = mix(pdfEntryHolder.getClass().getName().hashCode());
+
+		if(pdfEntryHolder instanceof PDFTextHolder)
+		{
+			// words of the dictionary are equal if their id is the same
+			PDFTextHolder pdfTextHolder = (PDFTextHolder)pdfEntryHolder;
+			if(pdfTextHolder.getTextId() != WordDictionary.NO_ID)
+				h = mix(mix(h ^ 1) ^ pdfTextHolder.getTextId());
+			else
+				h = mix(mix(h ^ 2) ^ WordDictionary.fold(pdfTextHolder.getText()).hashCode());
+		}
+
+		h = mix(h ^ quantise(pdfEntryHolder.getX()));
+		h = mix(h ^ quantise(pdfEntryHolder.getY()));
+		h = mix(h ^ quantise(pdfEntryHolder.getWidth()));
+		h = mix(h ^ quantise(pdfEntryHolder.getHeight()));
+
+		return h;
+	}
+
+	private static long quantise(double value)
+	{
+		return Math.round(value / POSITION_QUANTUM);
+	}
+
+	/**
+	 * 64bit finalizer from MurmurHash3
+	 *
+	 * @param h
+	 * @return
+	 */
+	static long mix(long h)
+	{
+		h += 0x9E3779B97F4A7C15L;
+		h ^= (h >>> 33);
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= (h >>> 33);
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= (h >>> 33);
+		return h;
+	}
+
+	/**
+	 * a single region of the page
+	 */
+	private static class Region
+	{
+		final Rectangle2D bounds;
+		final List<PDFEntryHolder> elements;
+		Region[] children;
+
+		// order independent hash of the own elements
+		long ownHash;
+
+		// hash of the own elements and all sub regions
+		long treeHash;
+
+		Region(double x, double y, double width, double height, int depth)
+		{
+			bounds = new Rectangle2D.Double(x, y, width, height);
+			elements = new ArrayList<PDFEntryHolder>();
+
+			if(depth > 1)
+			{
+				double w = width / 2, h = height / 2;
+				children = new Region[] {
+						new Region(x, y, w, h, depth-1),
+						new Region(x+w, y, w, h, depth-1),
+						new Region(x, y+h, w, h, depth-1),
+						new Region(x+w, y+h, w, h, depth-1) };
+			}
+		}
+
+		void add(PDFEntryHolder pdfEntryHolder, long hash)
+		{
+			// store the element in the smallest region which contains it
+			if(children != null)
+			{
+				for (Region child : children)
+				{
+					if(child.bounds.contains(pdfEntryHolder.getX(), pdfEntryHolder.getY(), pdfEntryHolder.getWidth(), pdfEntryHolder.getHeight()))
+					{
+						child.add(pdfEntryHolder, hash);
+						return;
+					}
+				}
+			}
+
+			elements.add(pdfEntryHolder);
+			ownHash += hash;
+		}
+
+		void calcHash()
+		{
+			treeHash = mix(ownHash);
+			if(children != null)
+			{
+				for (Region child : children)
+				{
+					child.calcHash();
+					treeHash = mix(treeHash ^ child.treeHash);
+				}
+			}
+		}
+
+		void collectElements(Set<PDFEntryHolder> result)
+		{
+			result.addAll(elements);
+			if(children != null)
+				for (Region child : children)
+					child.collectElements(result);
+		}
+	}
+}
@@ -94,6 +94,16 @@ public class PDFEntryHolder {
 		this.height = height;
 	}
 
+	/**
+	 * copy of the element without its page and with no difference
+	 * 
+	 * @return
+	 */
+	public PDFEntryHolder copy()
+	{
+		return new PDFEntryHolder(x, y, width, height);
+	}
+	
 	public Rectangle2D getRectangle()
 	{
 		 return new Rectangle2D.Float((float)x, (float)y, (float)width, (float)height);
@@ -33,5 +33,10 @@ public class PDFImageHolder extends PDFEntryHolder {
 	public PDFImageHolder(double x, double y, double width, double height) {
 		super(x, y, width, height);
 	}
+	
+	@Override
+	public PDFEntryHolder copy() {
+		return new PDFImageHolder(x, y, width, height);
+	}
 
 }
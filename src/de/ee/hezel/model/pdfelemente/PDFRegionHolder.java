@@ -0,0 +1,56 @@
+/*
+* PDFRegionHolder
+* 
+* Copyright (c) 2012, E&E information consultants AG. All rights reserved.
+* Authors:
+*   Peter Jentsch
+*   Nico Hezel
+*   
+* This library is free software; you can redistribute it and/or
+* modify it under the terms of the GNU Lesser General Public
+* License as published by the Free Software Foundation; either
+* version 2.1 of the License, or (at your option) any later version.
+*
+* This library is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this library; if not, write to the Free Software
+* Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+* MA 02110-1301 USA
+*/
+package de.ee.hezel.model.pdfelemente;
+
+/**
+ * A region of the page, where the rendered pages differ.
+ * It is not related to an element of the pdf structure.
+ * 
+ * @author hezeln
+ *
+ */
+public class PDFRegionHolder extends PDFEntryHolder {
+
+	// amount of different pixels inside the region
+	private int pixelCount;
+	
+	public PDFRegionHolder(double x, double y, double width, double height) {
+		super(x, y, width, height);
+	}
+	
+	public PDFRegionHolder(double x, double y, double width, double height, int pixelCount) {
+		super(x, y, width, height);
+		
+		this.pixelCount = pixelCount;
+	}
+	
+	public int getPixelCount() {
+		return pixelCount;
+	}
+	
+	@Override
+	public PDFEntryHolder copy() {
+		return new PDFRegionHolder(x, y, width, height, pixelCount);
+	}
+}
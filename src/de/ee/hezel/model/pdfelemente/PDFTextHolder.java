@@ -23,6 +23,8 @@
 */
 package de.ee.hezel.model.pdfelemente;
 
+import de.ee.hezel.util.WordDictionary;
+
 /**
  * @author hezeln
  *
@@ -31,6 +33,9 @@ public class PDFTextHolder extends PDFEntryHolder {
 
 	private String text;
 	
+	// id of the case folded text in the word dictionary
+	private int textId = WordDictionary.NO_ID;
+	
 	public PDFTextHolder(double x, double y, double width, double height) {
 		super(x, y, width, height);
 	}
@@ -41,10 +46,29 @@ public class PDFTextHolder extends PDFEntryHolder {
 		this.text = text;
 	}
 	
+	public PDFTextHolder(double x, double y, double width, double height, String text, int textId) {
+		this(x, y, width, height, text);
+		
+		this.textId = textId;
+	}
+	
 	public String getText() {
 		return text;
 	}
 	public void setText(String text) {
 		this.text = text;
+		this.textId = WordDictionary.NO_ID;
+	}
+	
+	public int getTextId() {
+		return textId;
+	}
+	public void setTextId(int textId) {
+		this.textId = textId;
+	}
+	
+	@Override
+	public PDFEntryHolder copy() {
+		return new PDFTextHolder(x, y, width, height, text, textId);
 	}
 }
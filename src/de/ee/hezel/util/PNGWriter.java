@@ -0,0 +1,413 @@
+/*
+* PNGWriter
+*
+* Copyright (c) 2012, E&E information consultants AG. All rights reserved.
+* Authors:
+*   Peter Jentsch
+*   Nico Hezel
+*
+* This library is free software; you can redistribute it and/or
+* modify it under the terms of the GNU Lesser General Public
+* License as published by the Free Software Foundation; either
+* version 2.1 of the License, or (at your option) any later version.
+*
+* This library is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this library; if not, write to the Free Software
+* Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+* MA 02110-1301 USA
+*/
+package de.ee.hezel.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes the difference images as PNG files in the background.
+ *
+ * The images are encoded by a few own threads, while the compare threads
+ * continue with the next page. If all threads are busy and the queue is
+ * full, the compare thread encodes the image itself, this way the pending
+ * images never take more memory than the queue allows.
+ *
+ * Difference images are mostly gray with some red and green marks. If an
+ * image has no more than 256 colors, it gets written with a palette, which
+ * is smaller and faster to encode. 
+ *
+ * @author hezeln
+ *
+ */
+public class PNGWriter {
+
+	static Logger log = Logger.getLogger(PNGWriter.class.getName());
+
+	// threads which encode the images
+	static final int THREADS = Integer.getInteger(PNGWriter.class.getName() + ".THREADS", 2);
+
+	// images waiting for a free thread
+	static final int QUEUE_SIZE = Integer.getInteger(PNGWriter.class.getName() + ".QUEUE_SIZE", 8);
+
+	// deflate level from 0 (none) to 9 (best), -1 for the default of the image writer.
+	// The PNG writer of Java 7 and 8 has no compression settings, there the
+	// images with a level are written by writeDeflated instead.
+	static final int COMPRESSION_LEVEL = Integer.getInteger(PNGWriter.class.getName() + ".COMPRESSION_LEVEL", -1);
+
+	// write images with few colors with a palette
+	static final boolean INDEXED = Boolean.parseBoolean(System.getProperty(PNGWriter.class.getName() + ".INDEXED", "true"));
+
+	private static ThreadPoolExecutor executor;
+
+	// images which are not written yet
+	private static int pending;
+	private static final Object pendingLock = new Object();
+
+	private PNGWriter()
+	{
+	}
+
+	/**
+	 * Write the image as PNG file in the background. The image must not
+	 * be changed afterwards. The buffers of the images to release are 
+	 * returned to the raster pool, once the image is written.
+	 *
+	 * @param img
+	 * @param file
+	 * @param release images which are not needed anymore (e.g. the image itself), 
+	 *        images sharing the same buffer are released once
+	 */
+	public static void write(final BufferedImage img, final File file, final BufferedImage... release)
+	{
+		synchronized (pendingLock) 
+		{
+			pending++;
+		}
+
+		getExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					writeNow(img, file);
+				} catch (Exception e) {
+					log.error("Unable to write " + file.getAbsolutePath() + ". Reason: " + e.getMessage(), e);
+				} finally {
+					RasterPool.releaseAll(release);
+					
+					synchronized (pendingLock) 
+					{
+						pending--;
+						pendingLock.notifyAll();
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Wait until all images are written.
+	 */
+	public static void awaitCompletion()
+	{
+		synchronized (pendingLock) 
+		{
+			while(pending > 0)
+			{
+				try {
+					pendingLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write the image as PNG file in this thread.
+	 *
+	 * @param img
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void writeNow(BufferedImage img, File file) throws IOException
+	{
+		BufferedImage indexedImg = INDEXED ? toIndexed(img) : null;
+		
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("png");
+		if(!writers.hasNext())
+			throw new IOException("No PNG image writer available");
+		ImageWriter writer = writers.next();
+		
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		boolean deflated = (COMPRESSION_LEVEL >= 0 && !param.canWriteCompressed());
+		if(COMPRESSION_LEVEL >= 0 && !deflated)
+		{
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(1f - Math.min(COMPRESSION_LEVEL, 9) / 9f);
+		}
+		
+		// ImageIO.write does not overwrite the rest of a longer file either
+		file.delete();
+		if(deflated)
+		{
+			writer.dispose();
+			try {
+				writeDeflated((indexedImg != null) ? indexedImg : img, file, Math.min(COMPRESSION_LEVEL, 9));
+			} finally {
+				if(indexedImg != null)
+					RasterPool.release(indexedImg);
+			}
+			return;
+		}
+		
+		ImageOutputStream output = ImageIO.createImageOutputStream(file);
+		if(output == null)
+			throw new IOException("Can't create an output stream for " + file.getAbsolutePath());
+		
+		try {
+			writer.setOutput(output);
+			writer.write(null, new IIOImage((indexedImg != null) ? indexedImg : img, null, null), param);
+		} finally {
+			writer.dispose();
+			output.close();
+			
+			if(indexedImg != null)
+				RasterPool.release(indexedImg);
+		}
+	}
+
+	/**
+	 * Write the image as PNG file with the given deflate level. Images with a
+	 * palette keep it, all others are written as 8 bit RGB (or RGBA) with the 
+	 * Sub filter on every row.
+	 *
+	 * @param img
+	 * @param file
+	 * @param level deflate level from 0 to 9
+	 * @throws IOException
+	 */
+	private static void writeDeflated(BufferedImage img, File file, int level) throws IOException
+	{
+		int width = img.getWidth();
+		int height = img.getHeight();
+		IndexColorModel palette = (img.getColorModel() instanceof IndexColorModel && img.getRaster().getNumBands() == 1 
+				&& img.getRaster().getTransferType() == DataBuffer.TYPE_BYTE) ? (IndexColorModel) img.getColorModel() : null;
+		boolean hasAlpha = (palette == null && img.getColorModel().hasAlpha());
+		int bytesPerPixel = (palette != null) ? 1 : hasAlpha ? 4 : 3;
+
+		// filtered rows as deflated image data
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		Deflater deflater = new Deflater(level);
+		try {
+			DeflaterOutputStream deflaterOutput = new DeflaterOutputStream(data, deflater, 64 * 1024);
+			int[] pixels = (palette == null) ? getPixels(img) : null;
+			byte[] indices = (palette != null) ? new byte[width] : null;
+			byte[] row = new byte[1 + width * bytesPerPixel];
+			for (int y = 0; y < height; y++) 
+			{
+				if(palette != null)
+				{
+					row[0] = 0;
+					img.getRaster().getDataElements(0, y, width, 1, indices);
+					System.arraycopy(indices, 0, row, 1, width);
+				}
+				else
+				{
+					int pos = y * width;
+					for (int x = 0, i = 1; x < width; x++, pos++) 
+					{
+						int pixel = pixels[pos];
+						row[i++] = (byte) (pixel >> 16);
+						row[i++] = (byte) (pixel >> 8);
+						row[i++] = (byte) pixel;
+						if(hasAlpha)
+							row[i++] = (byte) (pixel >>> 24);
+					}
+					
+					// Sub filter, backwards to keep the unfiltered left neighbours
+					row[0] = 1;
+					for (int i = row.length - 1; i > bytesPerPixel; i--) 
+						row[i] -= row[i - bytesPerPixel];
+				}
+				deflaterOutput.write(row);
+			}
+			deflaterOutput.finish();
+		} finally {
+			deflater.end();
+		}
+
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+		try {
+			output.write(new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' });
+			
+			ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+			DataOutputStream headerOutput = new DataOutputStream(header);
+			headerOutput.writeInt(width);
+			headerOutput.writeInt(height);
+			headerOutput.writeByte(8);
+			headerOutput.writeByte((palette != null) ? 3 : hasAlpha ? 6 : 2);
+			headerOutput.writeByte(0);
+			headerOutput.writeByte(0);
+			headerOutput.writeByte(0);
+			writeChunk(output, "IHDR", header.toByteArray());
+			
+			if(palette != null)
+			{
+				byte[] colors = new byte[3 * palette.getMapSize()];
+				for (int i = 0, j = 0; i < palette.getMapSize(); i++) 
+				{
+					colors[j++] = (byte) palette.getRed(i);
+					colors[j++] = (byte) palette.getGreen(i);
+					colors[j++] = (byte) palette.getBlue(i);
+				}
+				writeChunk(output, "PLTE", colors);
+			}
+			
+			writeChunk(output, "IDAT", data.toByteArray());
+			writeChunk(output, "IEND", new byte[0]);
+		} finally {
+			output.close();
+		}
+	}
+
+	private static void writeChunk(DataOutputStream output, String type, byte[] data) throws IOException
+	{
+		byte[] typeBytes = type.getBytes("US-ASCII");
+		CRC32 crc = new CRC32();
+		crc.update(typeBytes);
+		crc.update(data);
+		
+		output.writeInt(data.length);
+		output.write(typeBytes);
+		output.write(data);
+		output.writeInt((int) crc.getValue());
+	}
+
+	/**
+	 * Convert an opaque image with no more than 256 colors into an image with a palette.
+	 *
+	 * @param img
+	 * @return indexed image with a buffer of the raster pool or null if there are too many colors
+	 */
+	private static BufferedImage toIndexed(BufferedImage img)
+	{
+		int width = img.getWidth();
+		int height = img.getHeight();
+		int[] pixels = getPixels(img);
+		boolean hasAlpha = img.getColorModel().hasAlpha();
+
+		// open addressing hash table from color to palette index
+		int[] keys = new int[1024];
+		byte[] values = new byte[keys.length];
+		Arrays.fill(keys, -1);
+		int[] palette = new int[256];
+		int colors = 0;
+
+		int length = width * height;
+		byte[] indices = RasterPool.leaseBytes(length);
+		for (int pos = 0; pos < length; pos++) 
+		{
+			int pixel = pixels[pos];
+			if(hasAlpha && (pixel >>> 24) != 0xFF)
+			{
+				RasterPool.release(indices);
+				return null;
+			}
+
+			int color = pixel & 0xFFFFFF;
+			int slot = (color * 0x9E3779B1) >>> 22;
+			while(keys[slot] != color && keys[slot] != -1)
+				slot = (slot + 1) & (keys.length - 1);
+
+			if(keys[slot] == -1)
+			{
+				if(colors == palette.length)
+				{
+					RasterPool.release(indices);
+					return null;
+				}
+				keys[slot] = color;
+				values[slot] = (byte) colors;
+				palette[colors++] = color;
+			}
+			indices[pos] = values[slot];
+		}
+
+		IndexColorModel colorModel = new IndexColorModel(8, colors, palette, 0, false, -1, DataBuffer.TYPE_BYTE);
+		WritableRaster raster = Raster.createInterleavedRaster(new DataBufferByte(indices, length), width, height, width, 1, new int[] { 0 }, null);
+		return new BufferedImage(colorModel, raster, false, null);
+	}
+
+	/**
+	 * pixels of the image, without copying them if possible
+	 *
+	 * @param img
+	 * @return
+	 */
+	private static int[] getPixels(BufferedImage img)
+	{
+		WritableRaster raster = img.getRaster();
+		if(raster.getParent() == null && raster.getDataBuffer() instanceof DataBufferInt 
+				&& raster.getSampleModel() instanceof SinglePixelPackedSampleModel
+				&& ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride() == img.getWidth()
+				&& raster.getDataBuffer().getNumBanks() == 1 && raster.getDataBuffer().getOffset() == 0
+				&& (img.getType() == BufferedImage.TYPE_INT_RGB || img.getType() == BufferedImage.TYPE_INT_ARGB))
+			return ((DataBufferInt) raster.getDataBuffer()).getData();
+
+		return img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+	}
+
+	private static synchronized ThreadPoolExecutor getExecutor()
+	{
+		if(executor == null)
+		{
+			executor = new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), 
+					new ThreadFactory() {
+						private final AtomicInteger count = new AtomicInteger();
+						
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, PNGWriter.class.getSimpleName() + "-" + count.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					}, 
+					new ThreadPoolExecutor.CallerRunsPolicy());
+		}
+
+		return executor;
+	}
+}
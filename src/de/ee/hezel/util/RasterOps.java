@@ -0,0 +1,307 @@
+/*
+* RasterOps
+*
+* Copyright (c) 2012, E&E information consultants AG. All rights reserved.
+* Authors:
+*   Peter Jentsch
+*   Nico Hezel
+*
+* This library is free software; you can redistribute it and/or
+* modify it under the terms of the GNU Lesser General Public
+* License as published by the Free Software Foundation; either
+* version 2.1 of the License, or (at your option) any later version.
+*
+* This library is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this library; if not, write to the Free Software
+* Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+* MA 02110-1301 USA
+*/
+package de.ee.hezel.util;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Bulk operations on the 1-dimensional ARGB pixel arrays of page images.
+ *
+ * Every operation works row by row on the int array of the image without
+ * creating objects per pixel, the color conversions are done with
+ * precomputed lookup tables. Large images are split into bands of rows,
+ * which get processed in parallel by the shared pool.
+ *
+ * @author hezeln
+ *
+ */
+public class RasterOps {
+
+	// rows of a band, which is processed by a single thread
+	static final int BAND_HEIGHT = Integer.getInteger(RasterOps.class.getName() + ".BAND_HEIGHT", 128);
+	
+	// images with less pixels are processed by the calling thread
+	static final int PARALLEL_PIXELS = Integer.getInteger(RasterOps.class.getName() + ".PARALLEL_PIXELS", 1 << 18);
+	
+	// mean of the sum of red, green and blue
+	private static final int[] GRAY = new int[3 * 255 + 1];
+	
+	// opaque red and green with a gray value in the other channels
+	private static final int[] RED = new int[256];
+	private static final int[] GREEN = new int[256];
+	
+	static 
+	{
+		for (int i = 0; i < GRAY.length; i++)
+			GRAY[i] = i / 3;
+		
+		for (int i = 0; i < 256; i++) 
+		{
+			RED[i] = (0xFF << 24) | (0xFF << 16) | (i << 8) | i;
+			GREEN[i] = (0xFF << 24) | (i << 16) | (0xFF << 8) | i;
+		}
+	}
+	
+	private RasterOps()
+	{
+	}
+	
+	/**
+	 * Replace the color of every pixel by the color of its luminance, 
+	 * the alpha value stays as it is.
+	 * 
+	 * @param pixels
+	 * @param width
+	 * @param height
+	 * @param lumRed luminance part of the red value
+	 * @param lumGreen luminance part of the green value
+	 * @param lumBlue luminance part of the blue value
+	 * @param palette RGB color of every luminance (0-255)
+	 */
+	public static void colorize(final int[] pixels, final int width, int height, final int[] lumRed, final int[] lumGreen, final int[] lumBlue, final int[] palette)
+	{
+		run(new Band(0, height, width) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			long compute(int fromY, int toY) {
+				for (int pos = fromY * width, end = toY * width; pos < end; pos++) 
+				{
+					int pixel = pixels[pos];
+					int lum = lumRed[(pixel >> 16) & 255] + lumGreen[(pixel >> 8) & 255] + lumBlue[pixel & 255];
+					pixels[pos] = (pixel & 0xFF000000) | palette[Math.min(lum, 255)];
+				}
+				return 0;
+			}
+		});
+	}
+	
+	/**
+	 * Mark the pixels inside of the regions, whose gray values are different 
+	 * in both images. Pixels which are darker in the 1st image get red, 
+	 * pixels which are darker in the 2nd image get green. The pixels are 
+	 * changed in the 1st image, every pixel is marked once even if the 
+	 * regions overlap each other.
+	 * 
+	 * @param img1Pixels
+	 * @param img2Pixels
+	 * @param width
+	 * @param regions inside of the image
+	 * @param fromY first row of the regions
+	 * @param toY row after the last row of the regions
+	 * @param threshold gray value difference, beyond which a pixel gets marked
+	 */
+	public static void markDifferences(final int[] img1Pixels, final int[] img2Pixels, final int width, final List<Rectangle> regions, int fromY, int toY, final int threshold)
+	{
+		run(new Band(fromY, toY, width) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			long compute(int fromY, int toY) {
+				
+				// row number of the last visit of each column
+				int[] visited = new int[width];
+				Arrays.fill(visited, -1);
+				
+				for (int y = fromY; y < toY; y++) {
+					for (Rectangle bounds : regions) {
+						if(y < bounds.y || y >= bounds.y + bounds.height)
+							continue;
+						
+						for (int x = bounds.x, pos = y * width + x; x < bounds.x + bounds.width; x++, pos++) {
+							if(visited[x] == y)
+								continue;
+							visited[x] = y;
+							
+							int pixel1 = img1Pixels[pos];
+							int pixel2 = img2Pixels[pos];
+							if(pixel1 == pixel2)
+								continue;
+							
+							int gray1 = GRAY[((pixel1 >> 16) & 255) + ((pixel1 >> 8) & 255) + (pixel1 & 255)];
+							int gray2 = GRAY[((pixel2 >> 16) & 255) + ((pixel2 >> 8) & 255) + (pixel2 & 255)];
+							if(gray2 - gray1 > threshold)
+								img1Pixels[pos] = RED[gray1];
+							else if(gray1 - gray2 > threshold)
+								img1Pixels[pos] = GREEN[gray2];
+						}
+					}
+				}
+				return 0;
+			}
+		});
+	}
+	
+	/**
+	 * Amount of pixels inside the region, whose mean color difference
+	 * is above the threshold. 
+	 * 
+	 * @param img1Pixels
+	 * @param img2Pixels
+	 * @param width of the images
+	 * @param region inside of the images
+	 * @param threshold mean color difference
+	 * @return
+	 */
+	public static int countDifferences(final int[] img1Pixels, final int[] img2Pixels, final int width, final Rectangle region, int threshold)
+	{
+		final int sumThreshold = 3 * threshold;
+		return (int) run(new Band(region.y, region.y + region.height, region.width) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			long compute(int fromY, int toY) {
+				int count = 0;
+				for (int y = fromY; y < toY; y++) {
+					for (int pos = y * width + region.x, end = pos + region.width; pos < end; pos++) {
+						int pixel1 = img1Pixels[pos];
+						int pixel2 = img2Pixels[pos];
+						if(pixel1 == pixel2)
+							continue;
+						
+						int colorDiff = Math.abs(((pixel1 >> 16) & 255) - ((pixel2 >> 16) & 255)) 
+								+ Math.abs(((pixel1 >> 8) & 255) - ((pixel2 >> 8) & 255)) 
+								+ Math.abs((pixel1 & 255) - (pixel2 & 255));
+						if(colorDiff > sumThreshold)
+							count++;
+					}
+				}
+				return count;
+			}
+		});
+	}
+	
+	/**
+	 * Blend the overlay over the pixels of the image, the 
+	 * alpha value of the image stays as it is.
+	 * 
+	 * @param pixels image, which gets changed
+	 * @param overlay pixels of the same size
+	 * @param width
+	 * @param height
+	 * @param alpha opacity of the overlay (0-255)
+	 */
+	public static void blend(final int[] pixels, final int[] overlay, final int width, int height, int alpha)
+	{
+		// weighted channel values of both images
+		final int[] overlayPart = new int[256];
+		final int[] imagePart = new int[256];
+		for (int i = 0; i < 256; i++) 
+		{
+			overlayPart[i] = i * alpha;
+			imagePart[i] = i * (255 - alpha);
+		}
+		
+		run(new Band(0, height, width) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			long compute(int fromY, int toY) {
+				for (int pos = fromY * width, end = toY * width; pos < end; pos++) 
+				{
+					int pixel = pixels[pos];
+					int over = overlay[pos];
+					int r = (imagePart[(pixel >> 16) & 255] + overlayPart[(over >> 16) & 255] + 127) / 255;
+					int g = (imagePart[(pixel >> 8) & 255] + overlayPart[(over >> 8) & 255] + 127) / 255;
+					int b = (imagePart[pixel & 255] + overlayPart[over & 255] + 127) / 255;
+					pixels[pos] = (pixel & 0xFF000000) | (r << 16) | (g << 8) | b;
+				}
+				return 0;
+			}
+		});
+	}
+	
+	/**
+	 * process the band by the calling thread or in parallel
+	 * 
+	 * @param band
+	 * @return sum of the results of all bands
+	 */
+	private static long run(Band band)
+	{
+		if(band.toY <= band.fromY)
+			return 0;
+		
+		if((long)(band.toY - band.fromY) * band.width < PARALLEL_PIXELS)
+			return band.compute(band.fromY, band.toY);
+		
+		return SharedPool.get().invoke(band);
+	}
+	
+	/**
+	 * Rows of an image, which get split into 
+	 * bands of BAND_HEIGHT rows.
+	 */
+	private static abstract class Band extends RecursiveTask<Long> 
+	{
+		private static final long serialVersionUID = 1L;
+		
+		final int fromY, toY;
+		final int width;
+		
+		Band(int fromY, int toY, int width)
+		{
+			this.fromY = fromY;
+			this.toY = toY;
+			this.width = width;
+		}
+		
+		/**
+		 * process the rows
+		 * 
+		 * @param fromY
+		 * @param toY
+		 * @return result of the rows
+		 */
+		abstract long compute(int fromY, int toY);
+		
+		@Override
+		protected Long compute() 
+		{
+			if(toY - fromY <= BAND_HEIGHT)
+				return compute(fromY, toY);
+			
+			// process the lower half in a copy of this band
+			final Band outer = this;
+			int middle = (fromY + toY) >>> 1;
+			Band lower = new Band(middle, toY, width) {
+				private static final long serialVersionUID = 1L;
+				@Override
+				long compute(int fromY, int toY) {
+					return outer.compute(fromY, toY);
+				}
+			};
+			lower.fork();
+			
+			Band upper = new Band(fromY, middle, width) {
+				private static final long serialVersionUID = 1L;
+				@Override
+				long compute(int fromY, int toY) {
+					return outer.compute(fromY, toY);
+				}
+			};
+			long result = upper.compute();
+			return result + lower.join();
+		}
+	}
+}
@@ -0,0 +1,305 @@
+/*
+* RasterPool
+*
+* Copyright (c) 2012, E&E information consultants AG. All rights reserved.
+* Authors:
+*   Peter Jentsch
+*   Nico Hezel
+*
+* This library is free software; you can redistribute it and/or
+* modify it under the terms of the GNU Lesser General Public
+* License as published by the Free Software Foundation; either
+* version 2.1 of the License, or (at your option) any later version.
+*
+* This library is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this library; if not, write to the Free Software
+* Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+* MA 02110-1301 USA
+*/
+package de.ee.hezel.util;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.lang.reflect.Array;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Pool of int and byte buffers and page images shared by all compare jobs.
+ *
+ * A page image takes several megabytes, allocating a new one for every
+ * page lets the garbage collector copy them around until they die in the
+ * old generation. Returned buffers are kept in size classes (4 per power
+ * of two), a leased buffer is at most a quarter larger than requested. 
+ * All idle buffers together never take more than MAX_MEGABYTES, 
+ * additional returned buffers are left to the garbage collector.
+ *
+ * A buffer must not be used anymore after it has been released.
+ *
+ * @author hezeln
+ *
+ */
+public class RasterPool {
+
+	static Logger log = Logger.getLogger(RasterPool.class.getName());
+
+	// memory of all idle buffers
+	static final int MAX_MEGABYTES = Integer.getInteger(RasterPool.class.getName() + ".MAX_MEGABYTES", 256);
+
+	// smaller buffers are not worth pooling
+	static final int MIN_LENGTH = 4096;
+
+	private static final long maxBytes = (long) MAX_MEGABYTES * 1024 * 1024;
+
+	// idle int and byte buffers for every size class
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static final ArrayDeque<Object>[][] idle = new ArrayDeque[2][4 * 32];
+	private static long idleBytes;
+
+	private RasterPool()
+	{
+	}
+
+	/**
+	 * Lease a buffer with at least the given length. 
+	 * The content of the buffer is undefined.
+	 *
+	 * @param length
+	 * @return
+	 */
+	public static int[] lease(int length)
+	{
+		int[] buffer = (int[]) take(0, length);
+		return (buffer != null) ? buffer : new int[roundUp(length)];
+	}
+
+	/**
+	 * Lease a buffer with at least the given length, which is filled with zeros.
+	 *
+	 * @param length
+	 * @return
+	 */
+	public static int[] leaseCleared(int length)
+	{
+		int[] buffer = lease(length);
+		Arrays.fill(buffer, 0, length, 0);
+		return buffer;
+	}
+
+	/**
+	 * Lease a byte buffer with at least the given length. 
+	 * The content of the buffer is undefined.
+	 *
+	 * @param length
+	 * @return
+	 */
+	public static byte[] leaseBytes(int length)
+	{
+		byte[] buffer = (byte[]) take(1, length);
+		return (buffer != null) ? buffer : new byte[roundUp(length)];
+	}
+
+	/**
+	 * Return the buffer to the pool.
+	 *
+	 * @param buffer can be null
+	 */
+	public static void release(int[] buffer)
+	{
+		if(buffer != null)
+			put(0, buffer, buffer.length, 4);
+	}
+
+	/**
+	 * Return the byte buffer to the pool.
+	 *
+	 * @param buffer can be null
+	 */
+	public static void release(byte[] buffer)
+	{
+		if(buffer != null)
+			put(1, buffer, buffer.length, 1);
+	}
+
+	/**
+	 * Lease a TYPE_INT_ARGB image. The content of the image is undefined.
+	 *
+	 * @param width
+	 * @param height
+	 * @return
+	 */
+	public static BufferedImage leaseImage(int width, int height)
+	{
+		int length = width * height;
+		DirectColorModel colorModel = (DirectColorModel) ColorModel.getRGBdefault();
+		WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(lease(length), length), width, height, width, colorModel.getMasks(), null);
+		return new BufferedImage(colorModel, raster, false, null);
+	}
+
+	/**
+	 * Lease a TYPE_BYTE_GRAY image. The content of the image is undefined.
+	 *
+	 * @param width
+	 * @param height
+	 * @return
+	 */
+	public static BufferedImage leaseGrayImage(int width, int height)
+	{
+		int length = width * height;
+		ColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY), new int[] { 8 }, false, true, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+		WritableRaster raster = Raster.createInterleavedRaster(new DataBufferByte(leaseBytes(length), length), width, height, width, 1, new int[] { 0 }, null);
+		return new BufferedImage(colorModel, raster, false, null);
+	}
+
+	/**
+	 * Return the pixel buffer of the image to the pool.
+	 *
+	 * @param img can be null
+	 */
+	public static void release(BufferedImage img)
+	{
+		if(img == null)
+			return;
+
+		DataBuffer dataBuffer = img.getRaster().getDataBuffer();
+		if(dataBuffer instanceof DataBufferInt && dataBuffer.getNumBanks() == 1)
+			release(((DataBufferInt) dataBuffer).getData());
+		else if(dataBuffer instanceof DataBufferByte && dataBuffer.getNumBanks() == 1)
+			release(((DataBufferByte) dataBuffer).getData());
+	}
+
+	/**
+	 * Return the buffers of the images to the pool. Images 
+	 * sharing the same buffer are released once.
+	 *
+	 * @param images can contain null
+	 */
+	public static void releaseAll(BufferedImage... images)
+	{
+		Map<Object, Boolean> released = new IdentityHashMap<Object, Boolean>();
+		for (BufferedImage img : images) 
+		{
+			if(img == null)
+				continue;
+
+			DataBuffer dataBuffer = img.getRaster().getDataBuffer();
+			Object data = (dataBuffer instanceof DataBufferInt) ? ((DataBufferInt) dataBuffer).getData() 
+					: (dataBuffer instanceof DataBufferByte) ? ((DataBufferByte) dataBuffer).getData() : dataBuffer;
+			if(released.put(data, Boolean.TRUE) == null)
+				release(img);
+		}
+	}
+
+	/**
+	 * Take an idle buffer of the size class, which fits the length.
+	 *
+	 * @param kind 0 for int, 1 for byte buffers
+	 * @param length
+	 * @return null if there is none
+	 */
+	private static Object take(int kind, int length)
+	{
+		if(length < MIN_LENGTH)
+			return null;
+
+		synchronized (idle) 
+		{
+			ArrayDeque<Object> buffers = idle[kind][sizeClass(roundUp(length))];
+			if(buffers == null || buffers.isEmpty())
+				return null;
+
+			Object buffer = buffers.pop();
+			idleBytes -= (long) Array.getLength(buffer) * ((kind == 0) ? 4 : 1);
+			return buffer;
+		}
+	}
+
+	/**
+	 * Keep the buffer, if the pool is not full.
+	 *
+	 * @param kind 0 for int, 1 for byte buffers
+	 * @param buffer
+	 * @param length of the buffer
+	 * @param elementSize in bytes
+	 */
+	private static void put(int kind, Object buffer, int length, int elementSize)
+	{
+		if(length < MIN_LENGTH)
+			return;
+
+		long bytes = (long) length * elementSize;
+		synchronized (idle) 
+		{
+			if(idleBytes + bytes > maxBytes)
+			{
+				log.debug("raster pool is full, dropping a buffer of " + bytes + " bytes");
+				return;
+			}
+
+			// largest size class which is covered by the buffer
+			int sizeClass = sizeClass(length);
+			if(idle[kind][sizeClass] == null)
+				idle[kind][sizeClass] = new ArrayDeque<Object>();
+			idle[kind][sizeClass].push(buffer);
+			idleBytes += bytes;
+		}
+	}
+
+	/**
+	 * smallest length of a size class, which fits the length
+	 *
+	 * @param length
+	 * @return
+	 */
+	private static int roundUp(int length)
+	{
+		if(length < MIN_LENGTH)
+			return length;
+
+		int sizeClass = sizeClass(length);
+		return (classLength(sizeClass) < length) ? classLength(sizeClass + 1) : length;
+	}
+
+	/**
+	 * size class of the length, rounded down
+	 *
+	 * @param length
+	 * @return
+	 */
+	private static int sizeClass(int length)
+	{
+		int exponent = 31 - Integer.numberOfLeadingZeros(length);
+		int quarter = (exponent < 2) ? 0 : (length >>> (exponent - 2)) & 3;
+		return exponent * 4 + quarter;
+	}
+
+	/**
+	 * smallest length of the size class
+	 *
+	 * @param sizeClass
+	 * @return
+	 */
+	private static int classLength(int sizeClass)
+	{
+		int exponent = sizeClass / 4;
+		return (1 << exponent) + (sizeClass % 4) * ((1 << exponent) >>> 2);
+	}
+}
@@ -0,0 +1,52 @@
+/*
+* SharedPool
+*
+* Copyright (c) 2012, E&E information consultants AG. All rights reserved.
+* Authors:
+*   Peter Jentsch
+*   Nico Hezel
+*
+* This library is free software; you can redistribute it and/or
+* modify it under the terms of the GNU Lesser General Public
+* License as published by the Free Software Foundation; either
+* version 2.1 of the License, or (at your option) any later version.
+*
+* This library is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this library; if not, write to the Free Software
+* Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+* MA 02110-1301 USA
+*/
+package de.ee.hezel.util;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Fork/join pool shared by all compare jobs for
+ * the fine grained work inside a single job (e.g. pages).
+ *
+ * @author hezeln
+ *
+ */
+public class SharedPool {
+
+	static final int POOL_SIZE = Integer.getInteger(SharedPool.class.getName() + ".POOL_SIZE", Runtime.getRuntime().availableProcessors());
+
+	private static ForkJoinPool pool;
+
+	private SharedPool()
+	{
+	}
+
+	public static synchronized ForkJoinPool get()
+	{
+		if(pool == null)
+			pool = new ForkJoinPool(POOL_SIZE);
+
+		return pool;
+	}
+}
@@ -0,0 +1,127 @@
+/*
+* WordDictionary
+*
+* Copyright (c) 2012, E&E information consultants AG. All rights reserved.
+* Authors:
+*   Peter Jentsch
+*   Nico Hezel
+*
+* This library is free software; you can redistribute it and/or
+* modify it under the terms of the GNU Lesser General Public
+* License as published by the Free Software Foundation; either
+* version 2.1 of the License, or (at your option) any later version.
+*
+* This library is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this library; if not, write to the Free Software
+* Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+* MA 02110-1301 USA
+*/
+package de.ee.hezel.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dictionary for the words of the whole corpus.
+ *
+ * Every case folded word gets an unique id, two words
+ * are equal (ignoring the case) if their ids are the same.
+ * The dictionary is shared by all compare jobs and thread safe.
+ *
+ * Once the dictionary is full, unknown words get NO_ID
+ * and have to be compared by their text.
+ *
+ * @author hezeln
+ *
+ */
+public class WordDictionary {
+
+	public static final int NO_ID = -1;
+
+	static final int MAX_WORDS = Integer.getInteger(WordDictionary.class.getName() + ".MAX_WORDS", 1000000);
+
+	private static final WordDictionary shared = new WordDictionary(MAX_WORDS);
+
+	private final ConcurrentMap<String, Integer> ids;
+	private final AtomicInteger nextId;
+	private final int maxWords;
+
+	public WordDictionary(int maxWords)
+	{
+		this.maxWords = maxWords;
+		this.ids = new ConcurrentHashMap<String, Integer>();
+		this.nextId = new AtomicInteger();
+	}
+
+	/**
+	 * dictionary used by all compare jobs
+	 *
+	 * @return
+	 */
+	public static WordDictionary getShared()
+	{
+		return shared;
+	}
+
+	/**
+	 * get the id of the word
+	 *
+	 * @param word
+	 * @return id or NO_ID if the dictionary is full
+	 */
+	public int getId(String word)
+	{
+		if(word == null)
+			return NO_ID;
+
+		String folded = fold(word);
+		Integer id = ids.get(folded);
+		if(id != null)
+			return id.intValue();
+
+		// bounded, a few concurrent insertions might exceed the limit slightly
+		if(ids.size() >= maxWords)
+			return NO_ID;
+
+		Integer newId = Integer.valueOf(nextId.getAndIncrement());
+		id = ids.putIfAbsent(folded, newId);
+
+		return (id != null) ? id.intValue() : newId.intValue();
+	}
+
+	public int size()
+	{
+		return ids.size();
+	}
+
+	/**
+	 * Case folding with the same result as String.equalsIgnoreCase.
+	 * Two words are equal ignoring the case, if their folded words are equal.
+	 *
+	 * @param word
+	 * @return
+	 */
+	public static String fold(String word)
+	{
+		char[] chars = null;
+		for (int i = 0; i < word.length(); i++)
+		{
+			char c = word.charAt(i);
+			char f = Character.toLowerCase(Character.toUpperCase(c));
+			if(c != f)
+			{
+				if(chars == null)
+					chars = word.toCharArray();
+				chars[i] = f;
+			}
+		}
+
+		return (chars == null) ? word : new String(chars);
+	}
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2006-2012 ICEsoft Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS
+ * IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either * express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.icepdf.core.io;
+
+import org.icepdf.core.util.Defs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * SeekableInput over a file, which reads a large window of the file at once.
+ * The window is filled with positional reads of the FileChannel, so seeking
+ * and mark/reset only change the position of the stream.  Reading a single
+ * byte inside of the window involves no system call.
+ * <p/>
+ * The size of the window can be set with the system property
+ * org.icepdf.core.io.windowSize (bytes, default 64K).
+ */
+public class BufferedFileChannelInputStream extends InputStream implements SeekableInput {
+
+    private static final Logger logger =
+            Logger.getLogger(BufferedFileChannelInputStream.class.toString());
+
+    private static final int WINDOW_SIZE =
+            Math.max(1024, Defs.sysPropertyInt("org.icepdf.core.io.windowSize", 64 * 1024));
+
+    private FileInputStream m_FileInputStream;
+    private FileChannel m_Channel;
+    private long m_lLength;
+
+    // position of the stream and the mark
+    private long m_lPosition;
+    private long m_lMarkPosition;
+
+    // part of the file starting at m_lWindowStart
+    private byte[] m_Window;
+    private ByteBuffer m_WindowBuffer;
+    private long m_lWindowStart;
+    private int m_iWindowLength;
+
+    private Object m_oCurrentUser;
+
+    public static BufferedFileChannelInputStream build(File file) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            return new BufferedFileChannelInputStream(fis);
+        }
+        catch (IOException e) {
+            fis.close();
+            throw e;
+        }
+    }
+
+    protected BufferedFileChannelInputStream(FileInputStream fis) throws IOException {
+        super();
+        m_FileInputStream = fis;
+        m_Channel = fis.getChannel();
+        m_lLength = m_Channel.size();
+        m_Window = new byte[WINDOW_SIZE];
+        m_WindowBuffer = ByteBuffer.wrap(m_Window);
+    }
+
+    /**
+     * Move the window to the position, the window is shorter at the end
+     * of the file.
+     *
+     * @return true if there is anything to read at the position
+     */
+    private boolean fill(long position) throws IOException {
+        m_WindowBuffer.clear();
+        m_lWindowStart = position;
+        m_iWindowLength = 0;
+        while (m_WindowBuffer.hasRemaining()) {
+            int read = m_Channel.read(m_WindowBuffer, position + m_WindowBuffer.position());
+            if (read < 0)
+                break;
+        }
+        m_iWindowLength = m_WindowBuffer.position();
+        return m_iWindowLength > 0;
+    }
+
+
+    //
+    // InputStream overrides
+    //
+
+    public int read() throws IOException {
+        long offset = m_lPosition - m_lWindowStart;
+        if (offset < 0 || offset >= m_iWindowLength) {
+            if (m_lPosition >= m_lLength || !fill(m_lPosition))
+                return -1;
+            offset = 0;
+        }
+        m_lPosition++;
+        return m_Window[(int) offset] & 0xFF;
+    }
+
+    public int read(byte[] buffer) throws IOException {
+        return read(buffer, 0, buffer.length);
+    }
+
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0)
+            return 0;
+        if (m_lPosition >= m_lLength)
+            return -1;
+
+        long windowOffset = m_lPosition - m_lWindowStart;
+        if (windowOffset < 0 || windowOffset >= m_iWindowLength) {
+            // large reads go straight into the caller's buffer
+            if (length >= m_Window.length) {
+                int read = m_Channel.read(ByteBuffer.wrap(buffer, offset, length), m_lPosition);
+                if (read > 0)
+                    m_lPosition += read;
+                return read;
+            }
+            if (!fill(m_lPosition))
+                return -1;
+            windowOffset = 0;
+        }
+
+        int count = Math.min(length, m_iWindowLength - (int) windowOffset);
+        System.arraycopy(m_Window, (int) windowOffset, buffer, offset, count);
+        m_lPosition += count;
+        return count;
+    }
+
+    public void close() throws IOException {
+        m_Channel.close();
+        m_FileInputStream.close();
+    }
+
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0L, m_lLength - m_lPosition));
+    }
+
+    public void mark(int readLimit) {
+        m_lMarkPosition = m_lPosition;
+    }
+
+    public boolean markSupported() {
+        return true;
+    }
+
+    public void reset() throws IOException {
+        m_lPosition = m_lMarkPosition;
+    }
+
+    public long skip(long n) throws IOException {
+        if (n <= 0L)
+            return 0L;
+        long count = Math.min(n, Math.max(0L, m_lLength - m_lPosition));
+        m_lPosition += count;
+        return count;
+    }
+
+
+    //
+    // SeekableInput implementation
+    //  (which are not already covered by InputStream overrides)
+    //
+
+    public void seekAbsolute(long absolutePosition) throws IOException {
+        if (absolutePosition < 0L)
+            throw new IOException("Negative seek offset");
+        m_lPosition = absolutePosition;
+    }
+
+    public void seekRelative(long relativeOffset) throws IOException {
+        long pos = m_lPosition + relativeOffset;
+        if (pos < 0L)
+            pos = 0L;
+        m_lPosition = pos;
+    }
+
+    public void seekEnd() throws IOException {
+        m_lPosition = m_lLength;
+    }
+
+    public long getAbsolutePosition() throws IOException {
+        return m_lPosition;
+    }
+
+    public long getLength() throws IOException {
+        return m_lLength;
+    }
+
+    public InputStream getInputStream() {
+        return this;
+    }
+
+    public synchronized void beginThreadAccess() {
+        Object requestingUser = Thread.currentThread();
+        while (true) {
+            if (m_oCurrentUser == null) {
+                m_oCurrentUser = requestingUser;
+                break;
+            } else if (m_oCurrentUser == requestingUser) {
+                break;
+            } else { // Some other Thread is currently using us
+                try {
+                    this.wait(100L);
+                }
+                catch (InterruptedException ie) {
+                }
+            }
+        }
+    }
+
+    public synchronized void endThreadAccess() {
+        Object requestingUser = Thread.currentThread();
+        if (m_oCurrentUser == null) {
+            this.notifyAll();
+        } else if (m_oCurrentUser == requestingUser) {
+            m_oCurrentUser = null;
+            this.notifyAll();
+        } else { // Some other Thread is currently using us
+            if (logger.isLoggable(Level.SEVERE)) {
+                logger.severe(
+                        "ERROR:  Thread finished using SeekableInput, but it wasn't locked by that Thread\n" +
+                        "        Thread: " + Thread.currentThread() + "\n" +
+                        "        Locking Thread: " + m_oCurrentUser + "\n" +
+                        "        SeekableInput: " + this);
+            }
+        }
+    }
+}
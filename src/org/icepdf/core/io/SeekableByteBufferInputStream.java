@@ -0,0 +1,176 @@
+/*
+ * Copyright 2006-2012 ICEsoft Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS
+ * IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either * express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.icepdf.core.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * SeekableInput over a ByteBuffer, e.g. a read-only mapping of the PDF file
+ * which is shared with other readers of the same file.  The stream works on
+ * its own view of the buffer, the position of the given buffer is never
+ * changed.  Reading a byte, seeking and mark/reset only move the position of
+ * the view, there are no system calls involved.
+ *
+ * @since 5.0
+ */
+public class SeekableByteBufferInputStream extends InputStream implements SeekableInput {
+
+    private static final Logger log =
+            Logger.getLogger(SeekableByteBufferInputStream.class.toString());
+
+    private ByteBuffer m_Buffer;
+    private int m_iMarkPosition;
+    private Object m_oCurrentUser;
+
+    /**
+     * @param buffer the content of the PDF file from position 0 to its capacity
+     */
+    public SeekableByteBufferInputStream(ByteBuffer buffer) {
+        super();
+        m_Buffer = buffer.duplicate();
+        m_Buffer.clear();
+        m_iMarkPosition = 0;
+    }
+
+
+    //
+    // InputStream overrides
+    //
+
+    public int read() throws IOException {
+        if (!m_Buffer.hasRemaining())
+            return -1;
+        return m_Buffer.get() & 0xFF;
+    }
+
+    public int read(byte[] buffer) throws IOException {
+        return read(buffer, 0, buffer.length);
+    }
+
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0)
+            return 0;
+        int remaining = m_Buffer.remaining();
+        if (remaining == 0)
+            return -1;
+        int count = Math.min(length, remaining);
+        m_Buffer.get(buffer, offset, count);
+        return count;
+    }
+
+    public void close() throws IOException {
+        // the mapping belongs to the creator of the buffer
+    }
+
+    public int available() {
+        return m_Buffer.remaining();
+    }
+
+    public void mark(int readLimit) {
+        m_iMarkPosition = m_Buffer.position();
+    }
+
+    public boolean markSupported() {
+        return true;
+    }
+
+    public void reset() throws IOException {
+        m_Buffer.position(m_iMarkPosition);
+    }
+
+    public long skip(long n) throws IOException {
+        if (n <= 0L)
+            return 0L;
+        int count = (int) Math.min(n, (long) m_Buffer.remaining());
+        m_Buffer.position(m_Buffer.position() + count);
+        return count;
+    }
+
+
+    //
+    // SeekableInput implementation
+    //  (which are not already covered by InputStream overrides)
+    //
+
+    public void seekAbsolute(long absolutePosition) throws IOException {
+        if (absolutePosition < 0L)
+            throw new IOException("Negative seek offset");
+        // like a file, there is nothing to read behind the end
+        m_Buffer.position((int) Math.min(absolutePosition, (long) m_Buffer.limit()));
+    }
+
+    public void seekRelative(long relativeOffset) throws IOException {
+        long pos = m_Buffer.position() + relativeOffset;
+        if (pos < 0L)
+            pos = 0L;
+        seekAbsolute(pos);
+    }
+
+    public void seekEnd() throws IOException {
+        m_Buffer.position(m_Buffer.limit());
+    }
+
+    public long getAbsolutePosition() throws IOException {
+        return m_Buffer.position();
+    }
+
+    public long getLength() throws IOException {
+        return m_Buffer.limit();
+    }
+
+    public InputStream getInputStream() {
+        return this;
+    }
+
+    public synchronized void beginThreadAccess() {
+        Object requestingUser = Thread.currentThread();
+        while (true) {
+            if (m_oCurrentUser == null) {
+                m_oCurrentUser = requestingUser;
+                break;
+            } else if (m_oCurrentUser == requestingUser) {
+                break;
+            } else { // Some other Thread is currently using us
+                try {
+                    this.wait(100L);
+                }
+                catch (InterruptedException ie) {
+                }
+            }
+        }
+    }
+
+    public synchronized void endThreadAccess() {
+        Object requestingUser = Thread.currentThread();
+        if (m_oCurrentUser == null) {
+            this.notifyAll();
+        } else if (m_oCurrentUser == requestingUser) {
+            m_oCurrentUser = null;
+            this.notifyAll();
+        } else { // Some other Thread is currently using us
+            if (log.isLoggable(Level.SEVERE)) {
+                log.severe(
+                        "ERROR:  Thread finished using SeekableInput, but it wasn't locked by that Thread\n" +
+                        "        Thread: " + Thread.currentThread() + "\n" +
+                        "        Locking Thread: " + m_oCurrentUser + "\n" +
+                        "        SeekableInput: " + this);
+            }
+        }
+    }
+}
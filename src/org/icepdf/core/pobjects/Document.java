@@ -167,8 +167,8 @@ public class Document {
     public void setFile(String filepath)
             throws PDFException, PDFSecurityException, IOException {
         setDocumentOrigin(filepath);
-        RandomAccessFileInputStream rafis =
-                RandomAccessFileInputStream.build(new File(filepath));
+        BufferedFileChannelInputStream rafis =
+                BufferedFileChannelInputStream.build(new File(filepath));
 
         /*
         // Test code for setByteArray(-)